@@ -1,3 +1,18 @@
 #!/bin/bash
 VERSION=1.92.17
-java -jar /opt/eager-cli/EAGER-CLI-$VERSION.jar $*
+#Class data sharing archives for EAGER-CLI and the Java tools it starts, the first run creates them
+CDS_DIR="${EAGER_CDS_DIR:-$HOME/.cache/eager-cli/cds}"
+mkdir -p "$CDS_DIR"
+CDS_ARCHIVE="$CDS_DIR/EAGER-CLI-$VERSION.jsa"
+if [ -f "$CDS_ARCHIVE" ]; then
+    exec java -XX:+IgnoreUnrecognizedVMOptions "-XX:SharedArchiveFile=$CDS_ARCHIVE" "-Deager.cds=$CDS_DIR" -Djava.awt.headless=true -jar /opt/eager-cli/EAGER-CLI-$VERSION.jar "$@"
+fi
+#Concurrent first runs each write their own archive, renaming it is atomic so no run maps an incomplete one
+CDS_TEMPORARY="$CDS_ARCHIVE.$(hostname).$$.tmp"
+java -XX:+IgnoreUnrecognizedVMOptions "-XX:ArchiveClassesAtExit=$CDS_TEMPORARY" "-Deager.cds=$CDS_DIR" -Djava.awt.headless=true -jar /opt/eager-cli/EAGER-CLI-$VERSION.jar "$@"
+STATUS=$?
+if [ $STATUS -eq 0 ] && [ -s "$CDS_TEMPORARY" ]; then
+    mv -f "$CDS_TEMPORARY" "$CDS_ARCHIVE"
+fi
+rm -f "$CDS_TEMPORARY"
+exit $STATUS
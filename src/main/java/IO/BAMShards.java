@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.BAMIndexMetaData;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Splits an indexed, coordinate sorted BAM file into shards of whole contigs for parallel processing. Each shard is a
+ * consecutive range of contigs, so the results of the shards concatenated in shard order are in reference order again.
+ */
+public final class BAMShards {
+
+    private BAMShards() {
+    }
+
+    /**
+     * Aligned records per contig according to the BAM index, in reference order, or null if bam has no index.
+     */
+    public static LinkedHashMap<String, Long> countAlignedRecords(String bam) {
+        try (SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(new File(bam))) {
+            if ( !reader.hasIndex() ) {
+                return null;
+            }
+            BAMIndex index = reader.indexing().getIndex();
+            LinkedHashMap<String, Long> counts = new LinkedHashMap<String, Long>();
+            for (SAMSequenceRecord sequence : reader.getFileHeader().getSequenceDictionary().getSequences()) {
+                BAMIndexMetaData metaData = index.getMetaData(sequence.getSequenceIndex());
+                counts.put(sequence.getSequenceName(), metaData == null ? 0L : metaData.getAlignedRecordCount());
+            }
+            return counts;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * At most n shards with about the same number of records each. Contigs without records are left out.
+     * Returns null if bam has no index.
+     */
+    public static ArrayList<ArrayList<String>> split(String bam, int n) {
+        LinkedHashMap<String, Long> counts = countAlignedRecords(bam);
+        if ( counts == null ) {
+            return null;
+        }
+        long total = 0;
+        for (long count : counts.values()) {
+            total += count;
+        }
+
+        ArrayList<ArrayList<String>> shards = new ArrayList<ArrayList<String>>();
+        ArrayList<String> shard = new ArrayList<String>();
+        long inShard = 0;
+        long target = Math.max(1, total / Math.max(1, n));
+        for (String contig : counts.keySet()) {
+            if ( counts.get(contig) == 0 ) {
+                continue;
+            }
+            shard.add(contig);
+            inShard += counts.get(contig);
+            if ( inShard >= target && shards.size() < n - 1 ) {
+                shards.add(shard);
+                shard = new ArrayList<String>();
+                inShard = 0;
+            }
+        }
+        if ( !shard.isEmpty() ) {
+            shards.add(shard);
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A "samtools view -b -l level -o file -" process, compressing SAM or BAM data that is streamed to it from within EAGER.
+ */
+public class BAMWriterProcess {
+    private final String bam;
+    private final Process process;
+    private final OutputStream toProcess;
+
+    /**
+     * @param filterParameters additional samtools view parameters, e.g. "-F4"
+     */
+    public BAMWriterProcess(String bam, String cpucores, String compressionLevel, String... filterParameters) throws IOException {
+        this.bam = bam;
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("samtools");
+        parameters.add("view");
+        parameters.add("-@");
+        parameters.add(cpucores);
+        parameters.addAll(Arrays.asList(filterParameters));
+        parameters.add("-b");
+        parameters.add("-l");
+        parameters.add(compressionLevel);
+        parameters.add("-o");
+        parameters.add(bam);
+        parameters.add("-");
+        ProcessBuilder processBuilder = new ProcessBuilder(parameters);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        this.process = processBuilder.start();
+        this.toProcess = new BufferedOutputStream(process.getOutputStream());
+    }
+
+    /**
+     * Copies a SAM or BAM stream (e.g. the output of a mapper) into the given BAM file.
+     */
+    public static void copy(InputStream samStream, String bam, String cpucores, String compressionLevel) throws IOException {
+        BAMWriterProcess writer = new BAMWriterProcess(bam, cpucores, compressionLevel);
+        try {
+            IOUtils.copy(samStream, writer.getOutputStream());
+        } catch (IOException | RuntimeException e) {
+            samStream.close();
+            writer.abort();
+            throw e instanceof IOException ? (IOException) e : new IOException("Could not write " + bam + ": " + e, e);
+        }
+        writer.close();
+    }
+
+    public OutputStream getOutputStream() {
+        return toProcess;
+    }
+
+    /**
+     * Ends the input of samtools and waits for the BAM file to be written completely.
+     */
+    public void close() throws IOException {
+        toProcess.close();
+        try {
+            if ( process.waitFor() != 0 ) {
+                throw new IOException("samtools failed to write " + bam);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while writing " + bam, e);
+        }
+    }
+
+    public void abort() {
+        try {
+            toProcess.close();
+        } catch (IOException ignored) {
+            //samtools is killed anyway
+        }
+        process.destroy();
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a BGZF compressed VCF file (as bgzip does) and its tabix index (as tabix -p vcf does) in one pass. The
+ * blocks are compressed in parallel and written in order; the index records the virtual offset of every record as
+ * soon as the address of its block is known. As an OutputStream it can also be fed directly with the output of a
+ * caller instead of reading a written VCF file again.
+ */
+public class BGZFTabixWriter extends OutputStream {
+    private static final int BLOCK_SIZE = BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+    //only CHROM, POS and REF are needed for the index
+    private static final int INDEXED_COLUMNS = 4;
+
+    private final File output;
+    private final OutputStream out;
+    private final int level;
+    private final int threads;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<byte[]>> compressing = new ArrayDeque<Future<byte[]>>();
+    private final TabixIndexCreator indexer;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private int blockIndex = 0;
+    private long[] blockAddresses = new long[1024];
+    private int blocksWritten = 0;
+    private long address = 0;
+
+    //the line that is currently read, for the index
+    private final StringBuilder line = new StringBuilder();
+    private int lineColumns = 0;
+    private int lineBlock = 0;
+    private int lineOffset = 0;
+    private boolean atLineStart = true;
+    private final ArrayDeque<IndexedLine> pending = new ArrayDeque<IndexedLine>();
+
+    /**
+     * @param index write output + ".tbi" for the VCF records written to this stream
+     */
+    public BGZFTabixWriter(File output, int level, int threads, boolean index) throws IOException {
+        this.output = output;
+        this.out = new BufferedOutputStream(new FileOutputStream(output), 1 << 20);
+        this.level = level;
+        this.threads = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(this.threads);
+        this.indexer = index ? new TabixIndexCreator(TabixFormat.VCF) : null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            if ( indexer != null ) {
+                readForIndex(bytes[i]);
+            }
+            block[blockLength++] = bytes[i];
+            if ( blockLength == BLOCK_SIZE ) {
+                submitBlock();
+            }
+        }
+    }
+
+    private void readForIndex(byte b) throws IOException {
+        if ( atLineStart ) {
+            lineBlock = blockIndex;
+            lineOffset = blockLength;
+            atLineStart = false;
+        }
+        if ( b == '\n' ) {
+            endLine();
+        } else if ( lineColumns < INDEXED_COLUMNS ) {
+            if ( b == '\t' ) {
+                lineColumns++;
+            }
+            line.append((char) b);
+        }
+    }
+
+    private void endLine() throws IOException {
+        if ( line.length() > 0 && line.charAt(0) != '#' ) {
+            try {
+                pending.add(new IndexedLine(line.toString(), lineBlock, lineOffset));
+            } catch (NumberFormatException e) {
+                throw new IOException("Not a VCF record in " + output + ": " + line);
+            }
+        }
+        line.setLength(0);
+        lineColumns = 0;
+        atLineStart = true;
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] uncompressed = block;
+        final int length = blockLength;
+        compressing.add(executor.submit(() -> compress(uncompressed, length, level)));
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+        blockIndex++;
+        while ( compressing.size() > 2 * threads ) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        byte[] compressed;
+        try {
+            compressed = compressing.poll().get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while compressing " + output, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress " + output + ": " + e.getCause(), e.getCause());
+        }
+        if ( blocksWritten == blockAddresses.length ) {
+            blockAddresses = Arrays.copyOf(blockAddresses, blockAddresses.length * 2);
+        }
+        blockAddresses[blocksWritten++] = address;
+        out.write(compressed);
+        address += compressed.length;
+        addWrittenLinesToIndex();
+    }
+
+    private void addWrittenLinesToIndex() throws IOException {
+        while ( !pending.isEmpty() && pending.peek().block < blocksWritten ) {
+            IndexedLine indexed = pending.poll();
+            try {
+                indexer.addFeature(indexed, blockAddresses[indexed.block] << 16 | indexed.offset);
+            } catch (RuntimeException e) {
+                throw new IOException("Cannot index " + output + " at " + indexed.getContig() + ":" + indexed.getStart() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining blocks, the BGZF end of file marker and the index.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if ( indexer != null && !atLineStart ) {
+                endLine();
+            }
+            if ( blockLength > 0 ) {
+                submitBlock();
+            }
+            while ( !compressing.isEmpty() ) {
+                writeNextBlock();
+            }
+            out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+            out.close();
+            if ( indexer != null ) {
+                indexer.finalizeIndex(address << 16).write(new File(output.getPath() + ".tbi"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * One BGZF block: gzip header with the BC extra field, raw deflate data, CRC32 and uncompressed size. Data that
+     * does not compress into a block is stored uncompressed, as htsjdk does.
+     */
+    private static byte[] compress(byte[] uncompressed, int length, int level) {
+        byte[] data = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+        Deflater deflater = new Deflater(level, true);
+        deflater.setInput(uncompressed, 0, length);
+        deflater.finish();
+        int compressedLength = deflater.deflate(data, 0, data.length - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
+        if ( !deflater.finished() ) {
+            deflater.end();
+            deflater = new Deflater(Deflater.NO_COMPRESSION, true);
+            deflater.setInput(uncompressed, 0, length);
+            deflater.finish();
+            compressedLength = deflater.deflate(data, 0, data.length - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
+        }
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(uncompressed, 0, length);
+        int blockSize = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + compressedLength + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+        byte[] compressed = new byte[blockSize];
+        System.arraycopy(new byte[]{
+                BlockCompressedStreamConstants.GZIP_ID1, (byte) BlockCompressedStreamConstants.GZIP_ID2,
+                BlockCompressedStreamConstants.GZIP_CM_DEFLATE, (byte) BlockCompressedStreamConstants.GZIP_FLG,
+                0, 0, 0, 0,
+                (byte) BlockCompressedStreamConstants.GZIP_XFL, (byte) BlockCompressedStreamConstants.GZIP_OS_UNKNOWN,
+                (byte) BlockCompressedStreamConstants.GZIP_XLEN, 0,
+                BlockCompressedStreamConstants.BGZF_ID1, BlockCompressedStreamConstants.BGZF_ID2,
+                BlockCompressedStreamConstants.BGZF_LEN, 0,
+                (byte) (blockSize - 1), (byte) ((blockSize - 1) >>> 8)}, 0, compressed, 0, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+        System.arraycopy(data, 0, compressed, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, compressedLength);
+        int footer = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + compressedLength;
+        writeInt(compressed, footer, (int) crc.getValue());
+        writeInt(compressed, footer + 4, length);
+        return compressed;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * A VCF record for the index: CHROM, POS and the length of REF, at its position in the compressed file.
+     */
+    private static class IndexedLine implements Feature {
+        private final String contig;
+        private final int start;
+        private final int end;
+        private final int block;
+        private final int offset;
+
+        IndexedLine(String line, int block, int offset) {
+            String[] fields = line.split("\t", INDEXED_COLUMNS + 1);
+            this.contig = fields[0];
+            this.start = fields.length > 1 ? Integer.parseInt(fields[1]) : 0;
+            this.end = fields.length > 3 ? start + Math.max(1, fields[3].length()) - 1 : start;
+            this.block = block;
+            this.offset = offset;
+        }
+
+        @Override
+        public String getContig() {
+            return contig;
+        }
+
+        @Override
+        public int getStart() {
+            return start;
+        }
+
+        @Override
+        public int getEnd() {
+            return end;
+        }
+    }
+}
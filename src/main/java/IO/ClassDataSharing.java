@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+
+/**
+ * Class data sharing archives for the Java tools started by EAGER (-Deager.cds=/path/to/archives). The first run of a
+ * tool writes an archive of the classes it loaded (-XX:ArchiveClassesAtExit), all later runs map it instead of loading
+ * and verifying the classes again (-XX:SharedArchiveFile). Archives are named after the modification time of the
+ * tool's launcher, so updating a tool creates a new one. JVMs that do not know these options (before Java 13) ignore them.
+ *
+ * The folder may be shared by several EAGER instances (e.g. in $HOME on a cluster). An archive is written to a
+ * temporary file of its own and renamed once the tool succeeded, so other JVMs only ever see complete archives and
+ * keep those they already mapped. Archives of old tool versions may still be in use elsewhere and are not deleted.
+ */
+public final class ClassDataSharing {
+    private static final HashSet<String> JAVA_TOOLS = new HashSet<String>(Arrays.asList(
+            "dedup", "damageprofiler", "realignsamfile", "circulargenerator", "ClipAndMerge", "vcf2genome",
+            "MergedReadExtractor", "ReportTable", "mttonucratiocalculator", "picard", "qualimap", "gatk", "fastqc"));
+    private static final HashMap<String, File[]> writing = new HashMap<String, File[]>();
+
+    private ClassDataSharing() {
+    }
+
+    /**
+     * The JVM options to add to JAVA_TOOL_OPTIONS for command, or null if it is no Java tool, no archive folder is set,
+     * the tool is not on the PATH or its archive is being written by another run. Every call that returns options
+     * must be followed by processEnded with them once the tool ended.
+     */
+    public static String getJvmOptions(String command) {
+        String folder = RuntimeOptions.getClassDataSharingFolder();
+        if ( folder == null || !JAVA_TOOLS.contains(command) ) {
+            return null;
+        }
+        File launcher = getLauncher(command);
+        if ( launcher == null ) {
+            return null;
+        }
+        File archive = new File(folder, command + "-" + launcher.lastModified() + ".jsa");
+        synchronized (writing) {
+            if ( archive.isFile() ) {
+                return "-XX:+IgnoreUnrecognizedVMOptions -XX:SharedArchiveFile=" + archive.getAbsolutePath();
+            }
+            if ( writing.containsKey(command) ) {
+                return null;
+            }
+            new File(folder).mkdirs();
+            File temporary = new File(folder, archive.getName() + "." + UUID.randomUUID() + ".tmp");
+            writing.put(command, new File[]{temporary, archive});
+            return "-XX:+IgnoreUnrecognizedVMOptions -XX:ArchiveClassesAtExit=" + temporary.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Publishes the archive written by the run of command that got jvmOptions, if it wrote one and succeeded.
+     */
+    public static void processEnded(String command, String jvmOptions, boolean succeeded) {
+        File[] pending;
+        synchronized (writing) {
+            pending = writing.get(command);
+            if ( pending == null || !jvmOptions.endsWith("=" + pending[0].getAbsolutePath()) ) {
+                return;
+            }
+            writing.remove(command);
+        }
+        File temporary = pending[0];
+        if ( succeeded && temporary.length() > 0 ) {
+            try {
+                Files.move(temporary.toPath(), pending[1].toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.out.println("# Could not keep the class data sharing archive of " + command + ": " + e.getMessage());
+            }
+        }
+        temporary.delete();
+    }
+
+    private static File getLauncher(String command) {
+        String path = System.getenv("PATH");
+        if ( path != null ) {
+            for (String dir : path.split(File.pathSeparator)) {
+                File launcher = new File(dir, command);
+                if ( launcher.isFile() ) {
+                    return launcher;
+                }
+            }
+        }
+        return null;
+    }
+}
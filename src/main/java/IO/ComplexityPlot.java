@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Draws the preseq complexity curves of a library (c_curve, and lc_extrap with its 95% confidence interval if
+ * available) with Java2D and writes them as PNG, so that no plotting tool has to be started for every sample.
+ * The extrapolation is shown up to ten times the sequenced reads, beyond that it only flattens the observed curve.
+ */
+public class ComplexityPlot {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final int MARGIN_LEFT = 90;
+    private static final int MARGIN_RIGHT = 30;
+    private static final int MARGIN_TOP = 50;
+    private static final int MARGIN_BOTTOM = 70;
+    private static final double EXTRAPOLATION_RANGE = 10;
+
+    private final String title;
+    private final ArrayList<double[]> observed;
+    private final ArrayList<double[]> extrapolated;
+    private double maxX;
+    private double maxY;
+
+    /**
+     * @param ccurve the c_curve table of preseq
+     * @param lcextrap the lc_extrap table of preseq, or null
+     */
+    public ComplexityPlot(String title, File ccurve, File lcextrap) throws IOException {
+        this.title = title;
+        this.observed = readTable(ccurve);
+        this.extrapolated = lcextrap != null && lcextrap.isFile() ? readTable(lcextrap) : new ArrayList<double[]>();
+        if ( observed.isEmpty() ) {
+            throw new IOException(ccurve + " contains no values.");
+        }
+        maxX = observed.get(observed.size() - 1)[0];
+        double extrapolationLimit = maxX * EXTRAPOLATION_RANGE;
+        for (double[] row : extrapolated) {
+            if ( row[0] <= extrapolationLimit ) {
+                maxX = Math.max(maxX, row[0]);
+            }
+        }
+        for (double[] row : observed) {
+            maxY = Math.max(maxY, row[1]);
+        }
+        for (double[] row : extrapolated) {
+            if ( row[0] <= maxX ) {
+                maxY = Math.max(maxY, row.length > 3 ? row[3] : row[1]);
+            }
+        }
+        if ( maxY <= 0 ) {
+            maxY = 1;
+        }
+    }
+
+    public void writePNG(File png) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+            drawAxes(g);
+            drawCurves(g);
+            drawLegend(g);
+        } finally {
+            g.dispose();
+        }
+        if ( !ImageIO.write(image, "png", png) ) {
+            throw new IOException("No PNG writer available for " + png);
+        }
+    }
+
+    private void drawCurves(Graphics2D g) {
+        //Confidence interval of the extrapolation as a band, below the curves
+        if ( !extrapolated.isEmpty() && extrapolated.get(0).length > 3 ) {
+            Polygon band = new Polygon();
+            for (double[] row : extrapolated) {
+                if ( row[0] <= maxX ) band.addPoint(x(row[0]), y(row[2]));
+            }
+            for (int i = extrapolated.size() - 1; i >= 0; i--) {
+                double[] row = extrapolated.get(i);
+                if ( row[0] <= maxX ) band.addPoint(x(row[0]), y(row[3]));
+            }
+            g.setColor(new Color(70, 130, 180, 60));
+            g.fillPolygon(band);
+        }
+
+        //Every read distinct, the upper bound of all curves
+        g.setColor(Color.GRAY);
+        g.setStroke(new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10f, new float[]{4f, 4f}, 0f));
+        double diagonal = Math.min(maxX, maxY);
+        g.drawLine(x(0), y(0), x(diagonal), y(diagonal));
+
+        if ( !extrapolated.isEmpty() ) {
+            g.setColor(new Color(70, 130, 180));
+            g.setStroke(new BasicStroke(2f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 10f, new float[]{8f, 6f}, 0f));
+            g.draw(path(extrapolated));
+        }
+        g.setColor(new Color(178, 34, 34));
+        g.setStroke(new BasicStroke(2.5f));
+        g.draw(path(observed));
+    }
+
+    private Path2D path(ArrayList<double[]> table) {
+        Path2D.Double path = new Path2D.Double();
+        boolean first = true;
+        for (double[] row : table) {
+            if ( row[0] > maxX ) {
+                break;
+            }
+            if ( first ) {
+                path.moveTo(x(row[0]), y(row[1]));
+                first = false;
+            } else {
+                path.lineTo(x(row[0]), y(row[1]));
+            }
+        }
+        return path;
+    }
+
+    private void drawAxes(Graphics2D g) {
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 16));
+        g.setColor(Color.BLACK);
+        g.drawString(title, (WIDTH - g.getFontMetrics().stringWidth(title)) / 2, MARGIN_TOP / 2 + 6);
+
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+        double xStep = tickStep(maxX);
+        double yStep = tickStep(maxY);
+        for (double v = 0; v <= maxX; v += xStep) {
+            g.setColor(new Color(230, 230, 230));
+            g.drawLine(x(v), y(0), x(v), MARGIN_TOP);
+            g.setColor(Color.BLACK);
+            String label = format(v);
+            g.drawString(label, x(v) - g.getFontMetrics().stringWidth(label) / 2, y(0) + 18);
+        }
+        for (double v = 0; v <= maxY; v += yStep) {
+            g.setColor(new Color(230, 230, 230));
+            g.drawLine(x(0), y(v), WIDTH - MARGIN_RIGHT, y(v));
+            g.setColor(Color.BLACK);
+            String label = format(v);
+            g.drawString(label, x(0) - g.getFontMetrics().stringWidth(label) - 6, y(v) + 4);
+        }
+        g.drawLine(x(0), y(0), WIDTH - MARGIN_RIGHT, y(0));
+        g.drawLine(x(0), y(0), x(0), MARGIN_TOP);
+
+        String xLabel = "Total reads";
+        g.drawString(xLabel, MARGIN_LEFT + (WIDTH - MARGIN_LEFT - MARGIN_RIGHT - g.getFontMetrics().stringWidth(xLabel)) / 2, HEIGHT - 20);
+        Graphics2D rotated = (Graphics2D) g.create();
+        rotated.rotate(-Math.PI / 2);
+        String yLabel = "Distinct reads";
+        rotated.drawString(yLabel, -(MARGIN_TOP + (HEIGHT - MARGIN_TOP - MARGIN_BOTTOM + rotated.getFontMetrics().stringWidth(yLabel)) / 2), 20);
+        rotated.dispose();
+    }
+
+    private void drawLegend(Graphics2D g) {
+        int left = MARGIN_LEFT + 15;
+        int top = MARGIN_TOP + 15;
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+        g.setStroke(new BasicStroke(2.5f));
+        g.setColor(new Color(178, 34, 34));
+        g.drawLine(left, top, left + 25, top);
+        g.setColor(Color.BLACK);
+        g.drawString("Observed (c_curve)", left + 32, top + 4);
+        if ( !extrapolated.isEmpty() ) {
+            g.setColor(new Color(70, 130, 180));
+            g.setStroke(new BasicStroke(2f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 10f, new float[]{8f, 6f}, 0f));
+            g.drawLine(left, top + 18, left + 25, top + 18);
+            g.setColor(Color.BLACK);
+            g.drawString("Extrapolated (lc_extrap, 95% CI)", left + 32, top + 22);
+        }
+    }
+
+    private int x(double value) {
+        return (int) Math.round(MARGIN_LEFT + value / maxX * (WIDTH - MARGIN_LEFT - MARGIN_RIGHT));
+    }
+
+    private int y(double value) {
+        return (int) Math.round(HEIGHT - MARGIN_BOTTOM - value / maxY * (HEIGHT - MARGIN_TOP - MARGIN_BOTTOM));
+    }
+
+    /**
+     * 1, 2 or 5 times a power of ten, giving about five ticks.
+     */
+    private static double tickStep(double max) {
+        double raw = max / 5;
+        double magnitude = Math.pow(10, Math.floor(Math.log10(raw)));
+        double normalized = raw / magnitude;
+        if ( normalized < 1.5 ) {
+            return magnitude;
+        } else if ( normalized < 3.5 ) {
+            return 2 * magnitude;
+        } else if ( normalized < 7.5 ) {
+            return 5 * magnitude;
+        }
+        return 10 * magnitude;
+    }
+
+    private static String format(double value) {
+        DecimalFormat decimals = new DecimalFormat("0.##", DecimalFormatSymbols.getInstance(Locale.ROOT));
+        if ( value >= 1e9 ) {
+            return decimals.format(value / 1e9) + "G";
+        } else if ( value >= 1e6 ) {
+            return decimals.format(value / 1e6) + "M";
+        } else if ( value >= 1e3 ) {
+            return decimals.format(value / 1e3) + "k";
+        }
+        return decimals.format(value);
+    }
+
+    /**
+     * The numeric rows of a preseq table, header lines are skipped.
+     */
+    private static ArrayList<double[]> readTable(File table) throws IOException {
+        ArrayList<double[]> rows = new ArrayList<double[]>();
+        try (BufferedReader bfr = new BufferedReader(new FileReader(table))) {
+            String line;
+            while ( (line = bfr.readLine()) != null ) {
+                String[] fields = line.trim().split("\\s+");
+                try {
+                    double[] row = new double[fields.length];
+                    for (int i = 0; i < fields.length; i++) {
+                        row[i] = Double.parseDouble(fields[i]);
+                    }
+                    if ( row.length >= 2 ) {
+                        rows.add(row);
+                    }
+                } catch (NumberFormatException e) {
+                    //header
+                }
+            }
+        }
+        return rows;
+    }
+}
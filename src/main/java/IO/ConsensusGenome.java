@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the genomes of vcf2genome from a VCF file with calls for all sites: the draft (called bases, N where a call
+ * is missing or uncertain), refMod (the reference with the accepted SNPs) and uncertain, where the reason for every
+ * uncertain position is coded as 1 (no call), 2 (quality below minq), 3 (coverage below mincov) or 4 (SNP allele
+ * frequency below minfreq). Contigs are built in parallel if the VCF file is indexed (tabix or tribble), otherwise
+ * it is read once from start to end. Every contig is written to the three genomes as soon as it and the contigs
+ * before it are complete, so only the contigs being built are held in memory, as one byte per position. The
+ * reference comes from its shared mapping (see SharedReference).
+ */
+public class ConsensusGenome {
+    private static final byte NO_CALL = '1';
+    private static final byte LOW_QUALITY = '2';
+    private static final byte LOW_COVERAGE = '3';
+    private static final byte LOW_FREQUENCY = '4';
+    private static final int LINE_WIDTH = 80;
+
+    private final String reference;
+    private final double minQuality;
+    private final int minCoverage;
+    private final double minFrequency;
+
+    private long positions = 0;
+    private long snps = 0;
+    private final long[] uncertainCounts = new long[LOW_FREQUENCY - NO_CALL + 1];
+
+    public ConsensusGenome(String reference, double minQuality, int minCoverage, double minFrequency) {
+        this.reference = reference;
+        this.minQuality = minQuality;
+        this.minCoverage = minCoverage;
+        this.minFrequency = minFrequency;
+    }
+
+    /**
+     * Builds the genomes of the sample name from vcf and writes them to the FASTA files draft, refMod and uncertain.
+     */
+    public void build(String vcf, int threads, String name, String draft, String refMod, String uncertain) throws IOException {
+        SharedReference fasta = SharedReference.get(reference);
+        try (Genomes genomes = new Genomes(name, fasta.getContigs().size(), draft, refMod, uncertain)) {
+            boolean indexed;
+            try (VCFFileReader reader = new VCFFileReader(new File(vcf), false)) {
+                indexed = reader.isQueryable();
+                if ( !indexed ) {
+                    try (CloseableIterator<VariantContext> iterator = reader.iterator()) {
+                        buildInOrder(vcf, fasta, iterator, genomes);
+                    }
+                }
+            }
+            if ( indexed ) {
+                buildInParallel(vcf, fasta, Math.max(1, threads), genomes);
+            }
+        }
+    }
+
+    /**
+     * Queries the contigs in parallel, at most two per thread are built or waiting to be written at any time.
+     */
+    private void buildInParallel(String vcf, SharedReference fasta, int threads, Genomes genomes) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Contig>> running = new ArrayDeque<Future<Contig>>();
+        List<String> names = fasta.getContigs();
+        int submitted = 0;
+        try {
+            while ( submitted < names.size() || !running.isEmpty() ) {
+                while ( submitted < names.size() && running.size() < 2 * threads ) {
+                    Contig contig = new Contig(names.get(submitted++), fasta);
+                    running.add(executor.submit(() -> {
+                        try (VCFFileReader reader = new VCFFileReader(new File(vcf), true);
+                             CloseableIterator<VariantContext> iterator = reader.query(contig.name, 1, (int) contig.sequence.length())) {
+                            while ( iterator.hasNext() ) {
+                                contig.add(iterator.next());
+                            }
+                        }
+                        return contig;
+                    }));
+                }
+                genomes.write(running.poll().get());
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while reading " + vcf, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read " + vcf + ": " + e.getCause(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the calls of a VCF file sorted like the reference, a contig is complete once the calls of the next one start.
+     */
+    private void buildInOrder(String vcf, SharedReference fasta, CloseableIterator<VariantContext> iterator, Genomes genomes) throws IOException {
+        List<String> names = fasta.getContigs();
+        HashMap<String, Integer> order = new HashMap<String, Integer>();
+        for (int i = 0; i < names.size(); i++) {
+            order.put(names.get(i), i);
+        }
+        Contig current = null;
+        int next = 0;
+        while ( iterator.hasNext() ) {
+            VariantContext call = iterator.next();
+            if ( current == null || !current.name.equals(call.getContig()) ) {
+                Integer index = order.get(call.getContig());
+                if ( index == null ) {
+                    continue;
+                }
+                if ( index < next ) {
+                    throw new IOException(vcf + " is not sorted like " + reference + ", " + call.getContig() + " appears twice.");
+                }
+                if ( current != null ) {
+                    genomes.write(current);
+                }
+                while ( next < index ) {
+                    genomes.write(new Contig(names.get(next++), fasta));
+                }
+                current = new Contig(names.get(next++), fasta);
+            }
+            current.add(call);
+        }
+        if ( current != null ) {
+            genomes.write(current);
+        }
+        while ( next < names.size() ) {
+            genomes.write(new Contig(names.get(next++), fasta));
+        }
+    }
+
+    /**
+     * The genomes of one contig, as one byte per reference position: the called base, or the code of the reason why
+     * the position is uncertain. The draft has an N and refMod the reference base at uncertain positions.
+     */
+    private class Contig {
+        private final String name;
+        private final SharedReference.Sequence sequence;
+        private final byte[] calls;
+
+        Contig(String name, SharedReference fasta) {
+            this.name = name;
+            this.sequence = fasta.getSequence(name);
+            this.calls = new byte[(int) sequence.length()];
+            Arrays.fill(calls, NO_CALL);
+        }
+
+        /**
+         * Indels are not part of the genomes, their positions keep the call of the reference base.
+         */
+        void add(VariantContext call) {
+            if ( call.getReference().length() != 1 || call.getStart() > calls.length ) {
+                return;
+            }
+            int i = call.getStart() - 1;
+            byte ref = getReferenceBase(i);
+            Allele called = getCalledAllele(call);
+            if ( called == null ) {
+                return;
+            }
+            boolean snp = !called.isReference();
+            byte alt = snp ? (byte) Character.toUpperCase((char) called.getBases()[0]) : ref;
+
+            byte reason = 0;
+            if ( call.hasLog10PError() && call.getPhredScaledQual() < minQuality ) {
+                reason = LOW_QUALITY;
+            } else if ( getCoverage(call) < minCoverage ) {
+                reason = LOW_COVERAGE;
+            } else if ( snp && getAlleleFrequency(call, called) < minFrequency ) {
+                reason = LOW_FREQUENCY;
+            }
+            calls[i] = reason != 0 ? reason : alt;
+        }
+
+        byte getReferenceBase(int i) {
+            return (byte) Character.toUpperCase((char) sequence.getBase(i + 1));
+        }
+    }
+
+    private static boolean isUncertain(byte call) {
+        return call >= NO_CALL && call <= LOW_FREQUENCY;
+    }
+
+    /**
+     * The allele called at a site: the first single base alternative allele of the genotype (of the first sample), the
+     * reference allele for a reference genotype (e.g. 0/0 at a site with an ALT), null for a missing genotype. Calls
+     * without genotypes use their first single base alternative allele.
+     */
+    private static Allele getCalledAllele(VariantContext call) {
+        Genotype genotype = call.getNSamples() > 0 ? call.getGenotype(0) : null;
+        if ( genotype != null && genotype.isNoCall() ) {
+            return null;
+        }
+        List<Allele> alleles = genotype != null ? genotype.getAlleles() : call.getAlternateAlleles();
+        for (Allele allele : alleles) {
+            if ( !allele.isReference() && allele.length() == 1 && !allele.isSymbolic() && !allele.isNoCall() ) {
+                return allele;
+            }
+        }
+        return call.getReference();
+    }
+
+    private static int getCoverage(VariantContext call) {
+        if ( call.hasAttribute("DP") ) {
+            return call.getAttributeAsInt("DP", 0);
+        }
+        Genotype genotype = call.getNSamples() > 0 ? call.getGenotype(0) : null;
+        return genotype != null && genotype.hasDP() ? genotype.getDP() : 0;
+    }
+
+    /**
+     * Fraction of the reads supporting the allele, 1 if the call has no allele depth for it.
+     */
+    private static double getAlleleFrequency(VariantContext call, Allele allele) {
+        Genotype genotype = call.getNSamples() > 0 ? call.getGenotype(0) : null;
+        int index = call.getAlleleIndex(allele);
+        if ( genotype == null || !genotype.hasAD() || index < 0 || genotype.getAD().length <= index ) {
+            return 1;
+        }
+        int[] depths = genotype.getAD();
+        long total = 0;
+        for (int depth : depths) {
+            total += depth;
+        }
+        return total == 0 ? 0 : (double) depths[index] / total;
+    }
+
+    /**
+     * The three FASTA files of a sample, written contig by contig in reference order. The statistics of the written
+     * contigs are counted on the way.
+     */
+    private class Genomes implements AutoCloseable {
+        private final String name;
+        private final int contigs;
+        private final OutputStream draft;
+        private final OutputStream refMod;
+        private final OutputStream uncertain;
+
+        Genomes(String name, int contigs, String draft, String refMod, String uncertain) throws IOException {
+            this.name = name;
+            this.contigs = contigs;
+            this.draft = new BufferedOutputStream(new FileOutputStream(draft));
+            this.refMod = new BufferedOutputStream(new FileOutputStream(refMod));
+            this.uncertain = new BufferedOutputStream(new FileOutputStream(uncertain));
+        }
+
+        void write(Contig contig) throws IOException {
+            byte[] header = (">" + (contigs == 1 ? name : name + "_" + contig.name) + "\n").getBytes("US-ASCII");
+            draft.write(header);
+            refMod.write(header);
+            uncertain.write(header);
+            byte[] draftLine = new byte[LINE_WIDTH + 1];
+            byte[] refModLine = new byte[LINE_WIDTH + 1];
+            for (int start = 0; start < contig.calls.length; start += LINE_WIDTH) {
+                int length = Math.min(LINE_WIDTH, contig.calls.length - start);
+                for (int j = 0; j < length; j++) {
+                    byte call = contig.calls[start + j];
+                    byte ref = contig.getReferenceBase(start + j);
+                    if ( isUncertain(call) ) {
+                        uncertainCounts[call - NO_CALL]++;
+                        draftLine[j] = 'N';
+                        refModLine[j] = ref;
+                    } else {
+                        if ( call != ref ) {
+                            snps++;
+                        }
+                        draftLine[j] = call;
+                        refModLine[j] = call;
+                    }
+                }
+                draftLine[length] = '\n';
+                refModLine[length] = '\n';
+                draft.write(draftLine, 0, length + 1);
+                refMod.write(refModLine, 0, length + 1);
+                uncertain.write(contig.calls, start, length);
+                uncertain.write('\n');
+            }
+            positions += contig.calls.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                draft.close();
+                refMod.close();
+            } finally {
+                uncertain.close();
+            }
+        }
+    }
+
+    /**
+     * Adds the draft genome of a sample to a multi-FASTA file shared by all samples of a batch. This is a
+     * concatenation of the drafts, which have the coordinates of the reference, not an alignment computed by an
+     * aligner. Records named like those of the draft, i.e. of the same sample from an earlier run, are replaced, so
+     * a rerun does not add the sample twice. The file is rewritten under the lock of alignment.lock, as several EAGER
+     * processes may add to it.
+     */
+    public static void appendDraftTo(String alignment, String draft) throws IOException {
+        File target = new File(alignment);
+        try (RandomAccessFile lockFile = new RandomAccessFile(alignment + ".lock", "rw")) {
+            FileLock lock = lockFile.getChannel().lock();
+            try {
+                HashSet<String> records = getRecordNames(new File(draft));
+                File rewritten = new File(alignment + ".tmp");
+                try (BufferedWriter writer = new BufferedWriter(new FileWriter(rewritten))) {
+                    if ( target.isFile() ) {
+                        copyRecords(target, writer, records, false);
+                    }
+                    copyRecords(new File(draft), writer, records, true);
+                }
+                Files.move(rewritten.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static HashSet<String> getRecordNames(File fasta) throws IOException {
+        HashSet<String> names = new HashSet<String>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fasta))) {
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                if ( line.startsWith(">") ) {
+                    names.add(getRecordName(line));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static String getRecordName(String header) {
+        return header.substring(1).split("\\s")[0];
+    }
+
+    /**
+     * Copies the FASTA records of fasta whose names are (selected) or are not among names.
+     */
+    private static void copyRecords(File fasta, BufferedWriter writer, HashSet<String> names, boolean selected) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(fasta))) {
+            boolean copying = false;
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                if ( line.startsWith(">") ) {
+                    copying = names.contains(getRecordName(line)) == selected;
+                }
+                if ( copying ) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts of the called and uncertain positions of the built genomes, written next to them.
+     */
+    public void writeStatistics(String file) throws IOException {
+        long called = positions;
+        for (long count : uncertainCounts) {
+            called -= count;
+        }
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(file));
+        bfw.write("positions\t" + positions + "\n");
+        bfw.write("called\t" + called + "\n");
+        bfw.write("snps\t" + snps + "\n");
+        bfw.write("no_call\t" + uncertainCounts[NO_CALL - NO_CALL] + "\n");
+        bfw.write("low_quality\t" + uncertainCounts[LOW_QUALITY - NO_CALL] + "\n");
+        bfw.write("low_coverage\t" + uncertainCounts[LOW_COVERAGE - NO_CALL] + "\n");
+        bfw.write("low_frequency\t" + uncertainCounts[LOW_FREQUENCY - NO_CALL] + "\n");
+        bfw.flush();
+        bfw.close();
+    }
+}
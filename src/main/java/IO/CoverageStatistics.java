@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Coverage statistics of a coordinate sorted BAM file in a single pass, written in the layout of the
+ * genome_results.txt of qualimap bamqc (and a few of its raw data tables), so that the report still finds them.
+ * Depths are accumulated in a ring buffer of ints that covers only the positions between the start of the current
+ * read and the end of the longest overlapping read; positions left behind are final and go into the coverage
+ * histogram. With a BED file only positions within its regions are counted for the coverage statistics.
+ */
+public class CoverageStatistics {
+    private static final int MAX_DEPTH = 65535;
+    private static final int MAX_INSERT_SIZE = 100000;
+    private static final int[] BREADTH_THRESHOLDS = new int[30];
+    private static final int FILTERED_FLAGS = 0x4 | 0x100 | 0x200 | 0x800;
+
+    static {
+        for (int i = 0; i < BREADTH_THRESHOLDS.length; i++) {
+            BREADTH_THRESHOLDS[i] = i + 1;
+        }
+    }
+
+    private final HashMap<String, int[]> regions;
+
+    private String bam;
+    private long referenceBases;
+    private int contigs;
+    private long regionBases;
+
+    private long reads;
+    private long mappedReads;
+    private long secondary;
+    private long pairedBoth;
+    private long singletons;
+    private long duplicates;
+    private long mappedBases;
+    private long sequencedBases;
+    private long mappingQualitySum;
+    private long mismatches;
+    private long insertions;
+    private long deletions;
+    private long readsWithInsertion;
+    private long readsWithDeletion;
+    private boolean hasNMTags = false;
+    private final long[] baseContent = new long[5];
+    private final long[] gcHistogram = new long[101];
+    private final long[] insertSizes = new long[MAX_INSERT_SIZE + 1];
+
+    private final long[] depthHistogram = new long[MAX_DEPTH + 1];
+    private final ArrayList<String[]> perContig = new ArrayList<String[]>();
+
+    //the contig that is currently counted
+    private int[] ring = new int[1 << 16];
+    private int[] contigRegions;
+    private int regionIndex;
+    private long flushed;
+    private long touchedEnd;
+    private long contigLength;
+    private long contigDepthSum;
+    private double contigDepthSquares;
+    private long contigPositions;
+
+    /**
+     * @param bed capture regions (0-based, end exclusive) to restrict the coverage statistics to, or null
+     */
+    public CoverageStatistics(String bed) throws IOException {
+        this.regions = bed == null ? null : readRegions(bed);
+    }
+
+    public void count(String bam) throws IOException {
+        this.bam = bam;
+        try (SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(new File(bam))) {
+            SAMFileHeader header = reader.getFileHeader();
+            if ( header.getSortOrder() != SAMFileHeader.SortOrder.coordinate ) {
+                throw new IOException(bam + " is not sorted by coordinate.");
+            }
+            for (SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences()) {
+                referenceBases += sequence.getSequenceLength();
+                contigs++;
+            }
+
+            int contig = -1;
+            try (SAMRecordIterator iterator = reader.iterator()) {
+                while ( iterator.hasNext() ) {
+                    SAMRecord record = iterator.next();
+                    addRead(record);
+                    if ( (record.getFlags() & FILTERED_FLAGS) != 0 ) {
+                        continue;
+                    }
+                    while ( contig < record.getReferenceIndex() ) {
+                        if ( contig >= 0 ) {
+                            finishContig(header.getSequence(contig));
+                        }
+                        contig++;
+                        startContig(header.getSequence(contig));
+                    }
+                    flush(record.getAlignmentStart());
+                    addDepth(record);
+                }
+            }
+            while ( contig < header.getSequenceDictionary().size() ) {
+                if ( contig >= 0 ) {
+                    finishContig(header.getSequence(contig));
+                }
+                contig++;
+                if ( contig < header.getSequenceDictionary().size() ) {
+                    startContig(header.getSequence(contig));
+                }
+            }
+        }
+    }
+
+    private void addRead(SAMRecord record) {
+        int flag = record.getFlags();
+        if ( (flag & 0x100) != 0 ) {
+            secondary++;
+            return;
+        }
+        if ( (flag & 0x800) != 0 ) {
+            return;
+        }
+        reads++;
+        if ( (flag & 0x4) != 0 ) {
+            return;
+        }
+        mappedReads++;
+        if ( (flag & 0x1) != 0 ) {
+            if ( (flag & 0x8) != 0 ) {
+                singletons++;
+            } else {
+                pairedBoth++;
+                int insertSize = Math.abs(record.getInferredInsertSize());
+                if ( (flag & 0x40) != 0 && insertSize > 0 ) {
+                    insertSizes[Math.min(insertSize, MAX_INSERT_SIZE)]++;
+                }
+            }
+        }
+        if ( (flag & 0x400) != 0 ) {
+            duplicates++;
+        }
+        mappingQualitySum += record.getMappingQuality();
+        sequencedBases += record.getReadLength();
+
+        byte[] bases = record.getReadBases();
+        long gc = 0;
+        for (byte base : bases) {
+            int b = "ACGT".indexOf(Character.toUpperCase((char) base));
+            baseContent[b < 0 ? 4 : b]++;
+            if ( b == 1 || b == 2 ) {
+                gc++;
+            }
+        }
+        if ( bases.length > 0 ) {
+            gcHistogram[(int) Math.round(100.0 * gc / bases.length)]++;
+        }
+
+        int inserted = 0;
+        int deleted = 0;
+        for (CigarElement element : record.getCigar().getCigarElements()) {
+            switch (element.getOperator()) {
+                case M: case EQ: case X:
+                    mappedBases += element.getLength();
+                    break;
+                case I:
+                    inserted += element.getLength();
+                    insertions++;
+                    break;
+                case D:
+                    deleted += element.getLength();
+                    deletions++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if ( inserted > 0 ) readsWithInsertion++;
+        if ( deleted > 0 ) readsWithDeletion++;
+        Integer nm = record.getIntegerAttribute("NM");
+        if ( nm != null ) {
+            hasNMTags = true;
+            mismatches += Math.max(0, nm - inserted - deleted);
+        }
+    }
+
+    private void startContig(SAMSequenceRecord sequence) {
+        contigRegions = regions == null ? null : regions.get(sequence.getSequenceName());
+        regionIndex = 0;
+        flushed = 1;
+        touchedEnd = 1;
+        contigLength = sequence.getSequenceLength();
+        contigDepthSum = 0;
+        contigDepthSquares = 0;
+        contigPositions = 0;
+        Arrays.fill(ring, 0);
+    }
+
+    private void finishContig(SAMSequenceRecord sequence) {
+        flush(contigLength + 1);
+        double mean = contigPositions == 0 ? 0 : (double) contigDepthSum / contigPositions;
+        double std = contigPositions == 0 ? 0 : Math.sqrt(Math.max(0, contigDepthSquares / contigPositions - mean * mean));
+        perContig.add(new String[]{sequence.getSequenceName(), String.valueOf(sequence.getSequenceLength()),
+                String.valueOf(contigDepthSum), String.format(Locale.ROOT, "%.4f", mean), String.format(Locale.ROOT, "%.4f", std)});
+        regionBases += contigPositions;
+    }
+
+    private void addDepth(SAMRecord record) {
+        for (AlignmentBlock block : record.getAlignmentBlocks()) {
+            long end = block.getReferenceStart() + block.getLength();
+            if ( end - flushed > ring.length ) {
+                growRing(end - flushed);
+            }
+            for (long position = block.getReferenceStart(); position < end; position++) {
+                ring[(int) (position & (ring.length - 1))]++;
+            }
+            touchedEnd = Math.max(touchedEnd, end);
+        }
+    }
+
+    private void growRing(long needed) {
+        int size = ring.length;
+        while ( size < needed ) {
+            size *= 2;
+        }
+        int[] grown = new int[size];
+        for (long position = flushed; position < touchedEnd; position++) {
+            grown[(int) (position & (size - 1))] = ring[(int) (position & (ring.length - 1))];
+        }
+        ring = grown;
+    }
+
+    /**
+     * Adds the depths of all positions before upTo (1-based) to the statistics.
+     */
+    private void flush(long upTo) {
+        upTo = Math.min(upTo, contigLength + 1);
+        for (; flushed < upTo && flushed < touchedEnd; flushed++) {
+            int slot = (int) (flushed & (ring.length - 1));
+            if ( isCounted(flushed) ) {
+                addPositions(ring[slot], 1);
+            }
+            ring[slot] = 0;
+        }
+        //nothing covers the remaining positions
+        if ( flushed < upTo ) {
+            addPositions(0, countedPositions(flushed, upTo));
+            flushed = upTo;
+        }
+    }
+
+    private void addPositions(int depth, long positions) {
+        depthHistogram[Math.min(depth, MAX_DEPTH)] += positions;
+        contigDepthSum += (long) depth * positions;
+        contigDepthSquares += (double) depth * depth * positions;
+        contigPositions += positions;
+    }
+
+    private boolean isCounted(long position) {
+        if ( regions == null ) {
+            return true;
+        }
+        if ( contigRegions == null ) {
+            return false;
+        }
+        //regions are merged pairs of 1-based inclusive start and end, positions are flushed in increasing order
+        while ( regionIndex < contigRegions.length && contigRegions[regionIndex + 1] < position ) {
+            regionIndex += 2;
+        }
+        return regionIndex < contigRegions.length && contigRegions[regionIndex] <= position;
+    }
+
+    private long countedPositions(long from, long to) {
+        if ( regions == null ) {
+            return to - from;
+        }
+        if ( contigRegions == null ) {
+            return 0;
+        }
+        long counted = 0;
+        while ( regionIndex < contigRegions.length && contigRegions[regionIndex] < to ) {
+            long start = Math.max(from, contigRegions[regionIndex]);
+            long end = Math.min(to - 1, contigRegions[regionIndex + 1]);
+            if ( end >= start ) {
+                counted += end - start + 1;
+            }
+            if ( contigRegions[regionIndex + 1] >= to ) {
+                break;
+            }
+            regionIndex += 2;
+        }
+        return counted;
+    }
+
+    /**
+     * Writes genome_results.txt and raw_data_qualimapReport/ into outputFolder.
+     */
+    public void write(String outputFolder) throws IOException {
+        File rawData = new File(outputFolder, "raw_data_qualimapReport");
+        if ( !rawData.isDirectory() && !rawData.mkdirs() ) {
+            throw new IOException("Could not create " + rawData);
+        }
+        File results = new File(outputFolder, "genome_results.txt");
+
+        long positions = 0;
+        double depthSum = 0;
+        double depthSquares = 0;
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            positions += depthHistogram[depth];
+            depthSum += (double) depth * depthHistogram[depth];
+            depthSquares += (double) depth * depth * depthHistogram[depth];
+        }
+        double mean = positions == 0 ? 0 : depthSum / positions;
+        double std = positions == 0 ? 0 : Math.sqrt(Math.max(0, depthSquares / positions - mean * mean));
+
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(results));
+        bfw.write("BamQC report\n-----------------------------------\n\n");
+        bfw.write(">>>>>>> Input\n\n");
+        bfw.write("     bam file = " + bam + "\n");
+        bfw.write("     outfile = " + results.getPath() + "\n\n\n");
+        bfw.write(">>>>>>> Reference\n\n");
+        bfw.write("     number of bases = " + group(referenceBases) + " bp\n");
+        bfw.write("     number of contigs = " + contigs + "\n");
+        if ( regions != null ) {
+            bfw.write("     regions size = " + group(regionBases) + " bp\n");
+        }
+        bfw.write("\n\n>>>>>>> Globals\n\n");
+        bfw.write("     number of reads = " + group(reads) + "\n");
+        bfw.write("     number of mapped reads = " + group(mappedReads) + " (" + percent(mappedReads, reads) + ")\n");
+        bfw.write("     number of secondary alignments = " + group(secondary) + "\n\n");
+        bfw.write("     number of mapped paired reads (both in pair) = " + group(pairedBoth) + "\n");
+        bfw.write("     number of mapped paired reads (singletons) = " + group(singletons) + "\n\n");
+        bfw.write("     number of mapped bases = " + group(mappedBases) + " bp\n");
+        bfw.write("     number of sequenced bases = " + group(sequencedBases) + " bp\n");
+        bfw.write("     number of duplicated reads (flagged) = " + group(duplicates) + "\n\n\n");
+        bfw.write(">>>>>>> Insert size\n\n");
+        writeInsertSizes(bfw);
+        bfw.write("\n\n>>>>>>> Mapping quality\n\n");
+        bfw.write("     mean mapping quality = " + format(mappedReads == 0 ? 0 : (double) mappingQualitySum / mappedReads) + "\n\n\n");
+        bfw.write(">>>>>>> ACTG content\n\n");
+        long allBases = 0;
+        for (long count : baseContent) {
+            allBases += count;
+        }
+        String[] names = new String[]{"A", "C", "G", "T", "N"};
+        int[] order = new int[]{0, 1, 3, 2, 4};
+        for (int i : order) {
+            bfw.write("     number of " + names[i] + "'s = " + group(baseContent[i]) + " bp (" + percent(baseContent[i], allBases) + ")\n");
+        }
+        bfw.write("\n     GC percentage = " + percent(baseContent[1] + baseContent[2], allBases) + "\n\n\n");
+        bfw.write(">>>>>>> Mismatches and indels\n\n");
+        if ( hasNMTags ) {
+            bfw.write("    general error rate = " + format(mappedBases == 0 ? 0 : (double) (mismatches + insertions + deletions) / mappedBases) + "\n");
+            bfw.write("    number of mismatches = " + group(mismatches) + "\n");
+        }
+        bfw.write("    number of insertions = " + group(insertions) + "\n");
+        bfw.write("    mapped reads with insertion percentage = " + percent(readsWithInsertion, mappedReads) + "\n");
+        bfw.write("    number of deletions = " + group(deletions) + "\n");
+        bfw.write("    mapped reads with deletion percentage = " + percent(readsWithDeletion, mappedReads) + "\n\n\n");
+        bfw.write(">>>>>>> Coverage" + (regions != null ? " (inside of regions)" : "") + "\n\n");
+        bfw.write("     mean coverageData = " + format(mean) + "X\n");
+        bfw.write("     std coverageData = " + format(std) + "X\n");
+        bfw.write("     median coverageData = " + getMedianDepth(positions) + "X\n\n");
+        for (int threshold : BREADTH_THRESHOLDS) {
+            long atLeast = 0;
+            for (int depth = threshold; depth <= MAX_DEPTH; depth++) {
+                atLeast += depthHistogram[depth];
+            }
+            bfw.write("     There is a " + percent(atLeast, positions) + " of reference with a coverageData >= " + threshold + "X\n");
+        }
+        bfw.write("\n\n>>>>>>> Coverage per contig\n\n");
+        for (String[] contig : perContig) {
+            bfw.write("\t" + String.join("\t", contig) + "\n");
+        }
+        bfw.flush();
+        bfw.close();
+
+        writeRawData(new File(rawData, "coverage_histogram.txt"), "#Coverage\tNumber of genomic locations", depthHistogram);
+        writeRawData(new File(rawData, "insert_size_histogram.txt"), "#Insert size\tNumber of reads", insertSizes);
+        writeRawData(new File(rawData, "mapped_reads_gc-content_distribution.txt"), "#GC Content in %\tNumber of reads", gcHistogram);
+    }
+
+    private void writeInsertSizes(BufferedWriter bfw) throws IOException {
+        long pairs = 0;
+        double sum = 0;
+        double squares = 0;
+        for (int size = 0; size <= MAX_INSERT_SIZE; size++) {
+            pairs += insertSizes[size];
+            sum += (double) size * insertSizes[size];
+            squares += (double) size * size * insertSizes[size];
+        }
+        double mean = pairs == 0 ? 0 : sum / pairs;
+        bfw.write("     mean insert size = " + format(mean) + "\n");
+        bfw.write("     std insert size = " + format(pairs == 0 ? 0 : Math.sqrt(Math.max(0, squares / pairs - mean * mean))) + "\n");
+        bfw.write("     median insert size = " + median(insertSizes, pairs) + "\n");
+    }
+
+    private long getMedianDepth(long positions) {
+        return median(depthHistogram, positions);
+    }
+
+    private static long median(long[] histogram, long total) {
+        long seen = 0;
+        for (int value = 0; value < histogram.length; value++) {
+            seen += histogram[value];
+            if ( seen * 2 >= total && total > 0 ) {
+                return value;
+            }
+        }
+        return 0;
+    }
+
+    private static void writeRawData(File file, String header, long[] histogram) throws IOException {
+        int last = histogram.length - 1;
+        while ( last > 0 && histogram[last] == 0 ) {
+            last--;
+        }
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(file));
+        bfw.write(header + "\n");
+        for (int value = 0; value <= last; value++) {
+            bfw.write(value + ".0\t" + histogram[value] + ".0\n");
+        }
+        bfw.flush();
+        bfw.close();
+    }
+
+    private static String group(long value) {
+        return String.format(Locale.ROOT, "%,d", value);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    private static String percent(long part, long whole) {
+        return String.format(Locale.ROOT, "%.2f%%", whole == 0 ? 0 : 100.0 * part / whole);
+    }
+
+    /**
+     * Merged regions per contig as pairs of 1-based inclusive start and end.
+     */
+    private static HashMap<String, int[]> readRegions(String bed) throws IOException {
+        HashMap<String, ArrayList<int[]>> byContig = new HashMap<String, ArrayList<int[]>>();
+        try (BufferedReader bfr = new BufferedReader(new FileReader(bed))) {
+            String line;
+            while ( (line = bfr.readLine()) != null ) {
+                if ( line.isEmpty() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser") ) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                try {
+                    byContig.computeIfAbsent(fields[0], k -> new ArrayList<int[]>())
+                            .add(new int[]{Integer.parseInt(fields[1].trim()) + 1, Integer.parseInt(fields[2].trim())});
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Not a BED line in " + bed + ": " + line);
+                }
+            }
+        }
+        HashMap<String, int[]> merged = new HashMap<String, int[]>();
+        for (String contig : byContig.keySet()) {
+            ArrayList<int[]> intervals = byContig.get(contig);
+            intervals.sort((a, b) -> Integer.compare(a[0], b[0]));
+            int[] pairs = new int[intervals.size() * 2];
+            int n = 0;
+            for (int[] interval : intervals) {
+                if ( n > 0 && interval[0] <= pairs[n - 1] + 1 ) {
+                    pairs[n - 1] = Math.max(pairs[n - 1], interval[1]);
+                } else {
+                    pairs[n++] = interval[0];
+                    pairs[n++] = interval[1];
+                }
+            }
+            merged.put(contig, Arrays.copyOf(pairs, n));
+        }
+        return merged;
+    }
+}
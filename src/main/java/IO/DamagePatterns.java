@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Misincorporation patterns and fragment lengths of aligned ancient DNA reads, written as the tables of
+ * DamageProfiler and mapDamage (misincorporation.txt, 5pCtoT_freq.txt, 3pGtoA_freq.txt, lgdistribution.txt).
+ * Indexed BAM files are split into contig shards (see BAMShards) that workers count in parallel, each into its own
+ * primitive arrays, which are summed at the end. Positions are counted from both read ends in read orientation,
+ * up to the configured length; bases of reverse strand reads are complemented. The reference is read from its
+ * shared memory mapping (see SharedReference).
+ */
+public class DamagePatterns {
+    private static final String BASES = "ACGT";
+    private static final String[] SUBSTITUTIONS = {"G>A", "C>T", "A>G", "T>C", "A>C", "A>T", "C>G", "C>A", "T>G", "T>A", "G>C", "G>T"};
+    private static final int MAX_LENGTH = 1000;
+    //per end, strand and position: 16 reference/read base pairs, 4 deleted reference bases, 4 inserted read bases, soft clips
+    private static final int SLOTS = 16 + 4 + 4 + 1;
+    private static final int DELETION = 16;
+    private static final int INSERTION = 20;
+    private static final int SOFTCLIP = 24;
+
+    private final String reference;
+    private final int length;
+    private final double fraction;
+    private String bam;
+
+    private long[] counts;
+    private long[] lengths;
+
+    /**
+     * @param length number of positions from each read end that are counted
+     * @param fraction fraction of the reads that is used (see Downsampling), 1 for all
+     */
+    public DamagePatterns(String reference, int length, double fraction) {
+        this.reference = reference;
+        this.length = length;
+        this.fraction = fraction;
+    }
+
+    public void count(String bam, int threads) throws IOException {
+        this.bam = bam;
+        this.counts = new long[2 * 2 * length * SLOTS];
+        this.lengths = new long[2 * (MAX_LENGTH + 1)];
+
+        ArrayList<ArrayList<String>> shards = BAMShards.split(bam, Math.max(1, threads));
+        if ( shards == null ) {
+            //without an index the file is read once from start to end
+            shards = new ArrayList<ArrayList<String>>();
+            shards.add(null);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, shards.size())));
+        ArrayList<Future<Worker>> workers = new ArrayList<Future<Worker>>();
+        try {
+            for (ArrayList<String> shard : shards) {
+                workers.add(executor.submit(() -> {
+                    Worker worker = new Worker();
+                    worker.count(shard);
+                    return worker;
+                }));
+            }
+            for (Future<Worker> worker : workers) {
+                worker.get().addTo(counts, lengths);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while counting " + bam, e);
+        } catch (ExecutionException e) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not count " + bam + ": " + e.getCause(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Counts the reads of some contigs into its own arrays.
+     */
+    private class Worker {
+        private final long[] counts = new long[2 * 2 * length * SLOTS];
+        private final long[] lengths = new long[2 * (MAX_LENGTH + 1)];
+        private SharedReference fasta;
+        private int sequenceIndex = -1;
+        private SharedReference.Sequence sequence;
+
+        void count(ArrayList<String> contigs) throws IOException {
+            fasta = SharedReference.get(reference);
+            try (SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(new File(bam))) {
+                if ( contigs == null ) {
+                    try (SAMRecordIterator iterator = reader.iterator()) {
+                        addAll(iterator);
+                    }
+                } else {
+                    for (String contig : contigs) {
+                        try (SAMRecordIterator iterator = reader.query(contig, 0, 0, false)) {
+                            addAll(iterator);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void addAll(SAMRecordIterator iterator) {
+            while ( iterator.hasNext() ) {
+                SAMRecord record = iterator.next();
+                if ( record.getReadUnmappedFlag() || record.isSecondaryOrSupplementary() || record.getReadFailsVendorQualityCheckFlag()
+                        || record.getReadBases().length == 0 || !isSampled(record.getReadName()) ) {
+                    continue;
+                }
+                add(record);
+            }
+        }
+
+        private void add(SAMRecord record) {
+            byte[] bases = record.getReadBases();
+            int n = bases.length;
+            int strand = record.getReadNegativeStrandFlag() ? 1 : 0;
+            lengths[strand * (MAX_LENGTH + 1) + Math.min(n, MAX_LENGTH)]++;
+
+            int readOffset = 0;
+            int referencePosition = record.getAlignmentStart();
+            for (CigarElement element : record.getCigar().getCigarElements()) {
+                int elementLength = element.getLength();
+                switch (element.getOperator()) {
+                    case M: case EQ: case X:
+                        for (int i = 0; i < elementLength; i++) {
+                            int ref = base(getReferenceBase(record, referencePosition + i), strand);
+                            int read = base(bases[readOffset + i], strand);
+                            if ( ref >= 0 && read >= 0 ) {
+                                addAt(readOffset + i, n, strand, ref * 4 + read);
+                            }
+                        }
+                        readOffset += elementLength;
+                        referencePosition += elementLength;
+                        break;
+                    case I:
+                        for (int i = 0; i < elementLength; i++) {
+                            int read = base(bases[readOffset + i], strand);
+                            if ( read >= 0 ) {
+                                addAt(readOffset + i, n, strand, INSERTION + read);
+                            }
+                        }
+                        readOffset += elementLength;
+                        break;
+                    case D:
+                        for (int i = 0; i < elementLength; i++) {
+                            int ref = base(getReferenceBase(record, referencePosition + i), strand);
+                            if ( ref >= 0 && readOffset < n ) {
+                                addAt(readOffset, n, strand, DELETION + ref);
+                            }
+                        }
+                        referencePosition += elementLength;
+                        break;
+                    case S:
+                        for (int i = 0; i < elementLength; i++) {
+                            addAt(readOffset + i, n, strand, SOFTCLIP);
+                        }
+                        readOffset += elementLength;
+                        break;
+                    case N:
+                        referencePosition += elementLength;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Adds an observation at a read offset to the counts of the position from the 5' and from the 3' end.
+         */
+        private void addAt(int readOffset, int n, int strand, int slot) {
+            int from5p = strand == 0 ? readOffset : n - 1 - readOffset;
+            int from3p = n - 1 - from5p;
+            if ( from5p < length ) {
+                counts[((0 * 2 + strand) * length + from5p) * SLOTS + slot]++;
+            }
+            if ( from3p < length ) {
+                counts[((1 * 2 + strand) * length + from3p) * SLOTS + slot]++;
+            }
+        }
+
+        private byte getReferenceBase(SAMRecord record, int position) {
+            if ( record.getReferenceIndex() != sequenceIndex ) {
+                sequence = fasta.getSequence(record.getContig());
+                sequenceIndex = record.getReferenceIndex();
+            }
+            return sequence == null ? (byte) 'N' : sequence.getBase(position);
+        }
+
+        void addTo(long[] totalCounts, long[] totalLengths) {
+            for (int i = 0; i < counts.length; i++) {
+                totalCounts[i] += counts[i];
+            }
+            for (int i = 0; i < lengths.length; i++) {
+                totalLengths[i] += lengths[i];
+            }
+        }
+    }
+
+    /**
+     * Index of a base in ACGT in read orientation, -1 for anything else.
+     */
+    private static int base(byte b, int strand) {
+        int index = BASES.indexOf(Character.toUpperCase((char) b));
+        return index < 0 || strand == 0 ? index : 3 - index;
+    }
+
+    /**
+     * The same reads are kept in every run and by every worker, independent of their order.
+     */
+    private boolean isSampled(String readName) {
+        if ( fraction >= 1 ) {
+            return true;
+        }
+        long h = readName.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (h & 0xFFFFFFL) < fraction * 0x1000000L;
+    }
+
+    /**
+     * Writes the tables into outputFolder.
+     */
+    public void write(String outputFolder) throws IOException {
+        File folder = new File(outputFolder);
+        if ( !folder.isDirectory() && !folder.mkdirs() ) {
+            throw new IOException("Could not create " + folder);
+        }
+        writeFrequencies(new File(folder, "5pCtoT_freq.txt"), 0, "C", "T", "5pC>T");
+        writeFrequencies(new File(folder, "3pGtoA_freq.txt"), 1, "G", "A", "3pG>A");
+        writeMisincorporation(new File(folder, "misincorporation.txt"));
+        writeLengths(new File(folder, "lgdistribution.txt"));
+    }
+
+    private String getHeader() {
+        return "# table produced by EAGER\n# using mapped file " + bam + " and " + reference + "\n";
+    }
+
+    /**
+     * Substitution frequency per position from one end, both strands together.
+     */
+    private void writeFrequencies(File file, int end, String from, String to, String title) throws IOException {
+        int ref = BASES.indexOf(from);
+        int read = BASES.indexOf(to);
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(file));
+        bfw.write(getHeader());
+        bfw.write("pos\t" + title + "\n");
+        for (int pos = 0; pos < length; pos++) {
+            long substituted = 0;
+            long total = 0;
+            for (int strand = 0; strand < 2; strand++) {
+                int offset = ((end * 2 + strand) * length + pos) * SLOTS;
+                substituted += counts[offset + ref * 4 + read];
+                for (int b = 0; b < 4; b++) {
+                    total += counts[offset + ref * 4 + b];
+                }
+            }
+            bfw.write((pos + 1) + "\t" + String.format(Locale.ROOT, "%.6f", total == 0 ? 0 : (double) substituted / total) + "\n");
+        }
+        bfw.flush();
+        bfw.close();
+    }
+
+    /**
+     * The misincorporation.txt of mapDamage, all references merged.
+     */
+    private void writeMisincorporation(File file) throws IOException {
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(file));
+        bfw.write(getHeader());
+        StringBuilder header = new StringBuilder("Chr\tEnd\tStd\tPos\tA\tC\tG\tT\tTotal");
+        for (String substitution : SUBSTITUTIONS) {
+            header.append('\t').append(substitution);
+        }
+        header.append("\tA>-\tT>-\tC>-\tG>-\t->A\t->T\t->C\t->G\tS\n");
+        bfw.write(header.toString());
+        int[] indelOrder = new int[]{0, 3, 1, 2};
+        for (int end = 0; end < 2; end++) {
+            for (int strand = 0; strand < 2; strand++) {
+                for (int pos = 0; pos < length; pos++) {
+                    int offset = ((end * 2 + strand) * length + pos) * SLOTS;
+                    StringBuilder line = new StringBuilder("*\t").append(end == 0 ? "5p" : "3p").append('\t')
+                            .append(strand == 0 ? '+' : '-').append('\t').append(pos + 1);
+                    long total = 0;
+                    for (int ref = 0; ref < 4; ref++) {
+                        long refCount = counts[offset + DELETION + ref];
+                        for (int read = 0; read < 4; read++) {
+                            refCount += counts[offset + ref * 4 + read];
+                        }
+                        total += refCount;
+                        line.append('\t').append(refCount);
+                    }
+                    line.append('\t').append(total);
+                    for (String substitution : SUBSTITUTIONS) {
+                        line.append('\t').append(counts[offset + BASES.indexOf(substitution.charAt(0)) * 4 + BASES.indexOf(substitution.charAt(2))]);
+                    }
+                    for (int b : indelOrder) {
+                        line.append('\t').append(counts[offset + DELETION + b]);
+                    }
+                    for (int b : indelOrder) {
+                        line.append('\t').append(counts[offset + INSERTION + b]);
+                    }
+                    line.append('\t').append(counts[offset + SOFTCLIP]).append('\n');
+                    bfw.write(line.toString());
+                }
+            }
+        }
+        bfw.flush();
+        bfw.close();
+    }
+
+    private void writeLengths(File file) throws IOException {
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(file));
+        bfw.write(getHeader());
+        bfw.write("# Std: strand of reads\nStd\tLength\tOccurences\n");
+        for (int strand = 0; strand < 2; strand++) {
+            for (int n = 0; n <= MAX_LENGTH; n++) {
+                long occurrences = lengths[strand * (MAX_LENGTH + 1) + n];
+                if ( occurrences > 0 ) {
+                    bfw.write((strand == 0 ? "+" : "-") + "\t" + n + "\t" + occurrences + "\n");
+                }
+            }
+        }
+        bfw.flush();
+        bfw.close();
+    }
+}
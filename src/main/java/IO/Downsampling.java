@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import com.google.common.io.Files;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * Random downsampling for estimators whose results converge long before all reads are seen (damage patterns,
+ * PMD score distributions). Given the tolerance for the estimated rates (-Deager.downsample.tolerance=0.001), the
+ * number of observations needed is bounded by the standard error of a proportion, sqrt(p(1-p)/n) <= 0.5/sqrt(n), at 95%
+ * confidence. The rates are per position and reference base (e.g. C to T at the first base of a read), so only about
+ * a quarter of the reads are observations of each of them. Libraries with fewer mapped reads (as counted by the BAM
+ * index) are used completely.
+ */
+public final class Downsampling {
+    private static final double Z_95 = 1.96;
+    private static final int SEED = 42;
+    private static final int REFERENCE_BASES = 4;
+
+    private Downsampling() {
+    }
+
+    /**
+     * The number of reads needed for the configured tolerance, 4 * z^2 * 0.25 / t^2, or -1 if downsampling is disabled.
+     */
+    public static long getReadBudget() {
+        String tolerance = RuntimeOptions.getDownsamplingTolerance();
+        if ( tolerance == null ) {
+            return -1;
+        }
+        double t = Double.parseDouble(tolerance);
+        return (long) Math.ceil(REFERENCE_BASES * Z_95 * Z_95 * 0.25 / (t * t));
+    }
+
+    /**
+     * The fraction of reads of bam that is needed for the configured tolerance, 1 if all reads have to be used.
+     */
+    public static double getFraction(String bam) {
+        long budget = getReadBudget();
+        long reads = countMappedReads(bam);
+        if ( budget < 0 || reads <= budget ) {
+            return 1;
+        }
+        return (double) budget / reads;
+    }
+
+    /**
+     * The samtools view -s argument (seed and fraction) for a fraction below 1.
+     */
+    public static String getSamtoolsSubsampleArgument(double fraction) {
+        return SEED + String.format(Locale.ROOT, "%.8f", fraction).substring(1);
+    }
+
+    /**
+     * Mapped reads according to the index of bam, or -1 if it has none.
+     */
+    public static long countMappedReads(String bam) {
+        LinkedHashMap<String, Long> counts = BAMShards.countAlignedRecords(bam);
+        if ( counts == null ) {
+            return -1;
+        }
+        long reads = 0;
+        for (long count : counts.values()) {
+            reads += count;
+        }
+        return reads;
+    }
+
+    /**
+     * Writes the fraction of reads an estimator used next to its results, for the report. Called when the estimator
+     * runs, see getRecordCommand for estimators running as a process.
+     */
+    public static void record(String outputfolder, String modulename, String bam, double fraction) {
+        File file = getRecordFile(outputfolder, modulename, bam);
+        try (BufferedWriter bfw = new BufferedWriter(new FileWriter(file))) {
+            bfw.write("input\t" + bam + "\n");
+            bfw.write("tolerance\t" + RuntimeOptions.getDownsamplingTolerance() + "\n");
+            bfw.write("reads_used\t" + getReadBudget() + "\n");
+            bfw.write("fraction\t" + formatFraction(fraction) + "\n");
+        } catch (IOException e) {
+            System.out.println("# Could not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Shell command writing the same file as record, to be run after the estimator process succeeded.
+     */
+    public static String getRecordCommand(String outputfolder, String modulename, String bam, double fraction) {
+        return "printf '%s\\t%s\\n' input " + bam + " tolerance " + RuntimeOptions.getDownsamplingTolerance() +
+                " reads_used " + getReadBudget() + " fraction " + formatFraction(fraction) +
+                " > " + getRecordFile(outputfolder, modulename, bam).getPath();
+    }
+
+    private static File getRecordFile(String outputfolder, String modulename, String bam) {
+        return new File(outputfolder, Files.getNameWithoutExtension(bam) + "." + modulename + ".downsampling.txt");
+    }
+
+    private static String formatFraction(double fraction) {
+        return String.format(Locale.ROOT, "%.6f", fraction);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Counts the same categories as "samtools flagstat" and writes them in its text format, so that the
+ * .stats files can be produced while a BAM file is streamed through EAGER instead of reading it again.
+ */
+public class FlagstatCounter {
+    private static final int PASSED = 0;
+    private static final int FAILED = 1;
+
+    private final long[] total = new long[2];
+    private final long[] secondary = new long[2];
+    private final long[] supplementary = new long[2];
+    private final long[] duplicates = new long[2];
+    private final long[] mapped = new long[2];
+    private final long[] pairedInSequencing = new long[2];
+    private final long[] read1 = new long[2];
+    private final long[] read2 = new long[2];
+    private final long[] properlyPaired = new long[2];
+    private final long[] withMateMapped = new long[2];
+    private final long[] singletons = new long[2];
+    private final long[] mateOnDifferentChr = new long[2];
+    private final long[] mateOnDifferentChrQ5 = new long[2];
+
+    public void add(SAMRecord record) {
+        int flag = record.getFlags();
+        int w = (flag & 0x200) != 0 ? FAILED : PASSED;
+        total[w]++;
+        if ( (flag & 0x100) != 0 ) {
+            secondary[w]++;
+        } else if ( (flag & 0x800) != 0 ) {
+            supplementary[w]++;
+        } else if ( (flag & 0x1) != 0 ) {
+            pairedInSequencing[w]++;
+            if ( (flag & 0x2) != 0 && (flag & 0x4) == 0 ) properlyPaired[w]++;
+            if ( (flag & 0x40) != 0 ) read1[w]++;
+            if ( (flag & 0x80) != 0 ) read2[w]++;
+            if ( (flag & 0x8) != 0 && (flag & 0x4) == 0 ) singletons[w]++;
+            if ( (flag & 0x4) == 0 && (flag & 0x8) == 0 ) {
+                withMateMapped[w]++;
+                if ( !record.getMateReferenceIndex().equals(record.getReferenceIndex()) ) {
+                    mateOnDifferentChr[w]++;
+                    if ( record.getMappingQuality() >= 5 ) mateOnDifferentChrQ5[w]++;
+                }
+            }
+        }
+        if ( (flag & 0x4) == 0 ) mapped[w]++;
+        if ( (flag & 0x400) != 0 ) duplicates[w]++;
+    }
+
+    /**
+     * Reads a BAM stream, counting every record, while passing the unmodified bytes on to copy.
+     * The input is consumed completely, so that the copy is a full BAM file afterwards.
+     */
+    public void countAndCopy(InputStream bamStream, OutputStream copy) throws IOException {
+        TeeInputStream tee = new TeeInputStream(bamStream, copy);
+        SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT)
+                .open(SamInputResource.of(tee));
+        SAMRecordIterator iterator = reader.iterator();
+        while ( iterator.hasNext() ) {
+            add(iterator.next());
+        }
+        IOUtils.copy(tee, NullOutputStream.NULL_OUTPUT_STREAM);
+        reader.close();
+    }
+
+    public void write(File statsfile) throws IOException {
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(statsfile));
+        bfw.write(line(total, "in total (QC-passed reads + QC-failed reads)"));
+        bfw.write(line(secondary, "secondary"));
+        bfw.write(line(supplementary, "supplementary"));
+        bfw.write(line(duplicates, "duplicates"));
+        bfw.write(line(mapped, "mapped (" + percent(mapped[PASSED], total[PASSED]) + " : " + percent(mapped[FAILED], total[FAILED]) + ")"));
+        bfw.write(line(pairedInSequencing, "paired in sequencing"));
+        bfw.write(line(read1, "read1"));
+        bfw.write(line(read2, "read2"));
+        bfw.write(line(properlyPaired, "properly paired (" + percent(properlyPaired[PASSED], pairedInSequencing[PASSED]) + " : " + percent(properlyPaired[FAILED], pairedInSequencing[FAILED]) + ")"));
+        bfw.write(line(withMateMapped, "with itself and mate mapped"));
+        bfw.write(line(singletons, "singletons (" + percent(singletons[PASSED], pairedInSequencing[PASSED]) + " : " + percent(singletons[FAILED], pairedInSequencing[FAILED]) + ")"));
+        bfw.write(line(mateOnDifferentChr, "with mate mapped to a different chr"));
+        bfw.write(line(mateOnDifferentChrQ5, "with mate mapped to a different chr (mapQ>=5)"));
+        bfw.flush();
+        bfw.close();
+    }
+
+    private static String line(long[] counts, String description) {
+        return counts[PASSED] + " + " + counts[FAILED] + " " + description + "\n";
+    }
+
+    private static String percent(long n, long of) {
+        if ( of == 0 ) {
+            return "N/A";
+        }
+        return String.format(Locale.ROOT, "%.2f%%", (float) n / of * 100);
+    }
+}
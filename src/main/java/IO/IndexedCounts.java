@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Read counts of an indexed BAM file that are answered by its index instead of a pass over the whole file: the
+ * number of records per reference comes from the index metadata (see BAMShards), records within regions are read
+ * from the BGZF blocks the index lists for these regions only.
+ */
+public final class IndexedCounts {
+
+    private IndexedCounts() {
+    }
+
+    public static boolean isIndexed(String bam) {
+        try (SamReader reader = open(bam)) {
+            return reader.hasIndex();
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records overlapping at least one region of a BED file, each counted once, like samtools view -c -L.
+     */
+    public static long countInRegions(String bam, String bed) throws IOException {
+        try (SamReader reader = open(bam)) {
+            if ( !reader.hasIndex() ) {
+                throw new IOException(bam + " has no index.");
+            }
+            QueryInterval[] intervals = readBed(bed, reader.getFileHeader());
+            if ( intervals.length == 0 ) {
+                return 0;
+            }
+            long count = 0;
+            try (SAMRecordIterator iterator = reader.queryOverlapping(intervals)) {
+                while ( iterator.hasNext() ) {
+                    iterator.next();
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Mapped primary records, their summed read length and all mapped records read on one reference, read from its part of
+     * the file only. At most limit primary records are read (-1 for all), so the mean read length and the share of
+     * primary records can be estimated from a prefix.
+     */
+    public static long[] countReadsAndBases(String bam, String reference, long limit) throws IOException {
+        long[] readsAndBases = new long[3];
+        try (SamReader reader = open(bam)) {
+            if ( !reader.hasIndex() ) {
+                throw new IOException(bam + " has no index.");
+            }
+            try (SAMRecordIterator iterator = reader.query(reference, 0, 0, false)) {
+                while ( iterator.hasNext() && (limit < 0 || readsAndBases[0] < limit) ) {
+                    SAMRecord record = iterator.next();
+                    if ( record.getReadUnmappedFlag() ) {
+                        continue;
+                    }
+                    readsAndBases[2]++;
+                    if ( record.isSecondaryOrSupplementary() ) {
+                        continue;
+                    }
+                    readsAndBases[0]++;
+                    readsAndBases[1] += record.getReadLength();
+                }
+            }
+        }
+        return readsAndBases;
+    }
+
+    /**
+     * Lengths of the references in the header of bam, in reference order.
+     */
+    public static LinkedHashMap<String, Long> getReferenceLengths(String bam) throws IOException {
+        LinkedHashMap<String, Long> lengths = new LinkedHashMap<String, Long>();
+        try (SamReader reader = open(bam)) {
+            for (SAMSequenceRecord sequence : reader.getFileHeader().getSequenceDictionary().getSequences()) {
+                lengths.put(sequence.getSequenceName(), (long) sequence.getSequenceLength());
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * BED regions (0-based, end exclusive) as merged, sorted query intervals. Regions on references that are not
+     * part of the BAM header cannot contain reads and are left out.
+     */
+    private static QueryInterval[] readBed(String bed, SAMFileHeader header) throws IOException {
+        ArrayList<QueryInterval> intervals = new ArrayList<QueryInterval>();
+        try (BufferedReader bfr = new BufferedReader(new FileReader(bed))) {
+            String line;
+            while ( (line = bfr.readLine()) != null ) {
+                if ( line.isEmpty() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser") ) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if ( fields.length < 3 ) {
+                    throw new IOException("Not a BED line in " + bed + ": " + line);
+                }
+                int reference = header.getSequenceIndex(fields[0]);
+                if ( reference < 0 ) {
+                    continue;
+                }
+                try {
+                    intervals.add(new QueryInterval(reference, Integer.parseInt(fields[1].trim()) + 1, Integer.parseInt(fields[2].trim())));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Not a BED line in " + bed + ": " + line);
+                }
+            }
+        }
+        return QueryInterval.optimizeIntervals(intervals.toArray(new QueryInterval[intervals.size()]));
+    }
+
+    private static SamReader open(String bam) {
+        return SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(new File(bam));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+/**
+ * Settings of the command line runner that are not part of the configuration files written by the GUI.
+ * They are passed as Java system properties, e.g. java -Deager.optimizer=false -jar EAGER-CLI.jar ...
+ */
+public final class RuntimeOptions {
+
+    private RuntimeOptions() {
+    }
+
+    public static boolean isPlanOptimizerEnabled() {
+        return getBoolean("eager.optimizer", true);
+    }
+
+    public static boolean isSortOrderVerified() {
+        return getBoolean("eager.sort.verify", true);
+    }
+
+    /**
+     * Delete intermediate files as soon as their last consumer finished, if the configuration asks for cleanup at all.
+     */
+    public static boolean isEagerCleanupEnabled() {
+        return getBoolean("eager.cleanup.early", true);
+    }
+
+    /**
+     * Root folder on a fast local disk for intermediate files and temporary directories, or null to write everything
+     * to the results folder.
+     */
+    public static String getScratchRoot() {
+        return System.getProperty("eager.scratch");
+    }
+
+    /**
+     * Jar of a Java tool that is then run within the EAGER JVM (Java 8 to 17 only), e.g. -Deager.jar.picard=/opt/picard/picard.jar, or null.
+     */
+    public static String getToolJar(String command) {
+        return System.getProperty("eager.jar." + command);
+    }
+
+    /**
+     * Keep the classes of an in-process Java tool loaded between runs, see Runner.InProcessTool. The tools are listed
+     * by command, e.g. -Deager.jar.warm=picard, and should only be those tested not to keep state in static fields.
+     */
+    public static boolean isToolJarKeptWarm(String command) {
+        for (String warm : System.getProperty("eager.jar.warm", "").split(",")) {
+            if ( warm.trim().equals(command) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Folder for the class data sharing archives of the Java tools, or null, see ClassDataSharing.
+     */
+    public static String getClassDataSharingFolder() {
+        return System.getProperty("eager.cds");
+    }
+
+    /**
+     * Tolerance of the rates estimated by the damage modules, which then use a random subsample of the reads, or null.
+     */
+    public static String getDownsamplingTolerance() {
+        return System.getProperty("eager.downsample.tolerance");
+    }
+
+    /**
+     * Compute the coverage statistics within EAGER (see IO.CoverageStatistics) instead of running qualimap bamqc,
+     * which then writes genome_results.txt but no HTML report.
+     */
+    public static boolean isNativeCoverageEnabled() {
+        return getBoolean("eager.coverage.native", false);
+    }
+
+    /**
+     * Draw the complexity curves within EAGER (see IO.ComplexityPlot) instead of running lcp, which then writes
+     * <stem>.complexity.png to 8-Preseq in place of the plots of lcp.
+     */
+    public static boolean isNativeComplexityPlotEnabled() {
+        return getBoolean("eager.complexity.native", false);
+    }
+
+    /**
+     * Compute the MT to nuclear ratio within EAGER from the BAM index (see Modules.stats.MTToNucRatioCalculator)
+     * instead of running mttonucratiocalculator, which then writes its own .mtnucratio summary.
+     */
+    public static boolean isNativeMTNucRatioEnabled() {
+        return getBoolean("eager.mtnucratio.native", false);
+    }
+
+    /**
+     * Count the reads on the capture regions within EAGER from the BAM index (see IO.IndexedCounts) instead of
+     * running samtools view -c -L.
+     */
+    public static boolean isNativeOnTargetEnabled() {
+        return getBoolean("eager.ontarget.native", false);
+    }
+
+    /**
+     * Compute the damage patterns of DamageProfiler and mapDamage within EAGER (see IO.DamagePatterns), which then
+     * writes their tables but no plots.
+     */
+    public static boolean isNativeDamageEnabled() {
+        return getBoolean("eager.damage.native", false);
+    }
+
+    /**
+     * Build the genomes of VCF2Genome within EAGER (see IO.ConsensusGenome) instead of running vcf2genome.
+     */
+    public static boolean isNativeConsensusEnabled() {
+        return getBoolean("eager.vcf2genome.native", false);
+    }
+
+    /**
+     * Compress VCF files within EAGER (see IO.BGZFTabixWriter) instead of running bgzip, writing the tabix index in
+     * the same pass.
+     */
+    public static boolean isNativeBGZipEnabled() {
+        return getBoolean("eager.bgzip.native", false);
+    }
+
+    /**
+     * Multi-FASTA file that the in-process VCF2Genome adds the draft genome of every sample to, or null. The drafts
+     * share the coordinates of the reference, the file is their concatenation and not computed by an aligner.
+     */
+    public static String getConsensusAlignment() {
+        return System.getProperty("eager.vcf2genome.alignment");
+    }
+
+    /**
+     * Keep the BAM files of the results folder as reference based CRAM files (see Modules.filehandling.CramConversion).
+     */
+    public static boolean isCramOutputEnabled() {
+        return getBoolean("eager.cram", false);
+    }
+
+    /**
+     * BGZF compression level (0-9) of BAM files that are deleted again once the next module has read them.
+     */
+    public static String getIntermediateCompressionLevel() {
+        return System.getProperty("eager.compression.intermediate", "1");
+    }
+
+    /**
+     * BGZF compression level (0-9) of BAM files that are kept, 6 is the samtools default.
+     */
+    public static String getRetainedCompressionLevel() {
+        return System.getProperty("eager.compression.retained", "6");
+    }
+
+    private static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(System.getProperty(key, String.valueOf(defaultValue)));
+    }
+}
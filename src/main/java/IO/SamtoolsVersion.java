@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Features of the installed samtools that EAGER uses only if they are available, checked once with samtools --version.
+ */
+public final class SamtoolsVersion {
+    private static Boolean indexWrittenWhileWriting = null;
+
+    private SamtoolsVersion() {
+    }
+
+    /**
+     * samtools 1.10 and later write the index of a BAM file together with it (--write-index and the file##idx##index
+     * output name). With older versions the index is written in a separate step.
+     */
+    public static synchronized boolean isIndexWrittenWhileWriting() {
+        if ( indexWrittenWhileWriting == null ) {
+            indexWrittenWhileWriting = isAtLeast(1, 10);
+            if ( !indexWrittenWhileWriting ) {
+                System.out.println("# samtools is older than 1.10 or could not be found, BAM indices are written in a separate step.");
+            }
+        }
+        return indexWrittenWhileWriting;
+    }
+
+    /**
+     * The samtools view/sort output options for bam, with its index if that is written together with it.
+     */
+    public static String getIndexedOutputOptions(String bam) {
+        return isIndexWrittenWhileWriting() ? "--write-index -o " + bam + "##idx##" + bam + ".bai" : "-o " + bam;
+    }
+
+    private static boolean isAtLeast(int major, int minor) {
+        try {
+            Process process = new ProcessBuilder("samtools", "--version").redirectErrorStream(true).start();
+            String firstLine;
+            try (BufferedReader bfr = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                firstLine = bfr.readLine();
+                while ( bfr.readLine() != null ) {
+                }
+            }
+            process.waitFor();
+            Matcher version = Pattern.compile("^samtools (\\d+)\\.(\\d+)").matcher(firstLine == null ? "" : firstLine);
+            if ( !version.find() ) {
+                return false;
+            }
+            int installedMajor = Integer.parseInt(version.group(1));
+            int installedMinor = Integer.parseInt(version.group(2));
+            return installedMajor > major || (installedMajor == major && installedMinor >= minor);
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
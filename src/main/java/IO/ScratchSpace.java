@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import java.io.File;
+
+/**
+ * A local scratch disk (e.g. -Deager.scratch=/local/nvme) for intermediate files and temporary directories, so that
+ * only the files that are kept are written to the results folder. The scratch folders mirror the absolute path of
+ * the results folders, so runs of different samples sharing one scratch disk do not collide.
+ */
+public final class ScratchSpace {
+
+    private ScratchSpace() {
+    }
+
+    public static boolean isEnabled() {
+        return RuntimeOptions.getScratchRoot() != null;
+    }
+
+    /**
+     * The scratch folder for a results folder (created together with its .tmp folder), or the results folder itself
+     * if no scratch disk is configured.
+     */
+    public static String getFolder(String resultsFolder) {
+        if ( !isEnabled() ) {
+            return resultsFolder;
+        }
+        File folder = new File(RuntimeOptions.getScratchRoot(), new File(resultsFolder).getAbsolutePath());
+        new File(folder, ".tmp").mkdirs();
+        return folder.getPath();
+    }
+
+    /**
+     * The path a file written to scratch would have in the results folder. Other files are returned unchanged.
+     */
+    public static String toResultsPath(String file) {
+        if ( !isOnScratch(file) ) {
+            return file;
+        }
+        return new File(file).getAbsolutePath().substring(getRoot().length());
+    }
+
+    public static boolean isOnScratch(String file) {
+        return isEnabled() && new File(file).getAbsolutePath().startsWith(getRoot() + File.separator);
+    }
+
+    private static String getRoot() {
+        return new File(RuntimeOptions.getScratchRoot()).getAbsolutePath();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Random access to a FASTA reference for the engines running within EAGER, without copying it into the heap. The
+ * file is memory-mapped once per JVM and shared by all threads and all samples of a batch; the .fai index written
+ * by samtools faidx (see Modules.indexing.SamtoolFaidx) locates the bases of a contig. Reading does not move any
+ * buffer position, so the mapping can be used concurrently.
+ */
+public final class SharedReference {
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final Map<String, SharedReference> mapped = new HashMap<String, SharedReference>();
+
+    private final long lastModified;
+    private final MappedByteBuffer[] chunks;
+    private final LinkedHashMap<String, Sequence> sequences = new LinkedHashMap<String, Sequence>();
+
+    /**
+     * The mapping of a FASTA file, created on first use. A FASTA file that changed since it was mapped is mapped again
+     * and replaces the old mapping, which is unmapped once no engine uses it anymore.
+     */
+    public static SharedReference get(String fasta) throws IOException {
+        File file = new File(fasta).getCanonicalFile();
+        synchronized (mapped) {
+            SharedReference reference = mapped.get(file.getPath());
+            if ( reference == null || reference.lastModified != file.lastModified() ) {
+                reference = new SharedReference(file);
+                mapped.put(file.getPath(), reference);
+            }
+            return reference;
+        }
+    }
+
+    private SharedReference(File fasta) throws IOException {
+        this.lastModified = fasta.lastModified();
+        File fai = new File(fasta.getPath() + ".fai");
+        if ( !fai.isFile() ) {
+            throw new IOException(fasta + " has no .fai index, run samtools faidx first.");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(fasta, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, i * CHUNK_SIZE, Math.min(CHUNK_SIZE, size - i * CHUNK_SIZE));
+            }
+        }
+        try (BufferedReader bfr = new BufferedReader(new FileReader(fai))) {
+            String line;
+            while ( (line = bfr.readLine()) != null ) {
+                String[] fields = line.split("\t");
+                if ( fields.length < 5 ) {
+                    throw new IOException("Not a .fai line in " + fai + ": " + line);
+                }
+                sequences.put(fields[0], new Sequence(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+            }
+        }
+    }
+
+    /**
+     * The names of the contigs, in the order of the FASTA file.
+     */
+    public List<String> getContigs() {
+        return new ArrayList<String>(sequences.keySet());
+    }
+
+    /**
+     * The sequence of a contig, or null if the reference has no such contig.
+     */
+    public Sequence getSequence(String contig) {
+        return sequences.get(contig);
+    }
+
+    /**
+     * A contig of the mapped reference. Bases are read from the mapping on every access, nothing is copied.
+     */
+    public final class Sequence {
+        private final long length;
+        private final long offset;
+        private final int lineBases;
+        private final int lineWidth;
+
+        private Sequence(long length, long offset, int lineBases, int lineWidth) {
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        /**
+         * The base at a 1-based position as written in the FASTA file (soft-masked bases in lower case), N outside
+         * of the contig.
+         */
+        public byte getBase(long position) {
+            if ( position < 1 || position > length ) {
+                return 'N';
+            }
+            long index = position - 1;
+            long fileOffset = offset + index / lineBases * lineWidth + index % lineBases;
+            return chunks[(int) (fileOffset >>> CHUNK_BITS)].get((int) (fileOffset & (CHUNK_SIZE - 1)));
+        }
+    }
+}
@@ -17,8 +17,12 @@
 package Modules;
 
 import IO.Communicator;
+import IO.RuntimeOptions;
+import IO.ScratchSpace;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Map;
 
@@ -96,12 +100,103 @@ public abstract class AModule {
 
     public void setProcessEnvironment (Map <String, String> env) {};
 
+    /**
+     * Modules that post-process the standard output of their process within EAGER (e.g. to compute statistics
+     * while a file is being written) return true here. The stream is then handed to consumeProcessOutput
+     * instead of being printed to the console.
+     */
+    public boolean consumesProcessOutput() {
+        return false;
+    }
+
+    public void consumeProcessOutput(InputStream processOutput) throws IOException {};
+
+    /**
+     * Modules whose work is done by EAGER itself return true here, runInProcess is then called instead of starting
+     * a process. The parameters are only written to the log.
+     */
+    public boolean runsInProcess() {
+        return false;
+    }
+
+    public void runInProcess() throws IOException {};
+
+    /**
+     * True for modules whose output file is only an intermediate step (e.g. unsorted BAM files), which may be deleted
+     * as soon as the following module has read it. Outputs are retained by default.
+     */
+    public boolean producesIntermediateOutput() {
+        return false;
+    }
+
+    /**
+     * BGZF compression level for the BAM files written by this module. Intermediate files that are removed again
+     * (see producesIntermediateOutput) are compressed as little as possible, all others with the configured level.
+     */
+    public String getCompressionLevel() {
+        if ( producesIntermediateOutput() && this.communicator.isRun_cleanup() ) {
+            return RuntimeOptions.getIntermediateCompressionLevel();
+        }
+        return RuntimeOptions.getRetainedCompressionLevel();
+    }
+
     public Communicator getCommunicator(){
         return this.communicator;
     }
 
     public abstract String getOutputfolder();
 
+    /**
+     * Folder for intermediate outputs, see producesIntermediateOutput. On the scratch disk if one is configured,
+     * otherwise the output folder itself.
+     */
+    public String getIntermediateFolder() {
+        return ScratchSpace.getFolder(getOutputfolder());
+    }
+
+    public String getTemporaryFolder() {
+        return getIntermediateFolder() + File.separator + ".tmp";
+    }
+
+    /**
+     * True if file exists and was written after (or together with) the file it was derived from.
+     * Files written by the same tool invocation may be closed in either order, hence the small tolerance.
+     */
+    public static boolean isUpToDate(String file, String derivedFrom) {
+        File f = new File(file);
+        File source = new File(derivedFrom);
+        return f.isFile() && f.lastModified() + 2000 >= source.lastModified();
+    }
+
+    /**
+     * The possible index files of a BAM file: samtools writes <file>.bam.bai, Picard (CREATE_INDEX) <file>.bai.
+     */
+    public static String[] getIndexFiles(String bam) {
+        if ( bam.endsWith(".bam") ) {
+            return new String[]{bam + ".bai", bam.substring(0, bam.length() - ".bam".length()) + ".bai"};
+        }
+        return new String[]{bam + ".bai"};
+    }
+
+    /**
+     * The index file of bam that is up to date (see isUpToDate), or null.
+     */
+    public static String getUpToDateIndex(String bam) {
+        for (String index : getIndexFiles(bam)) {
+            if ( isUpToDate(index, bam) ) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parameters for a module that has nothing left to do, e.g. because a previous module already produced its output.
+     */
+    protected String[] getSkipParameters(String reason) {
+        return new String[]{"echo", "# " + this.getModulename() + " skipped: " + reason};
+    }
+
     public static void setEnvironmentForParameterPrepend (Map <String, String> env, String separator, String key, String value) {
         String resolvedValue = value;
         if ( env.containsKey(key) ) {
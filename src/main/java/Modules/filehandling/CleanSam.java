@@ -19,7 +19,8 @@ public class CleanSam extends AModule {
     public void setParameters() {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
         String output = getOutputfolder()+"/"+output_stem+".cleaned.bam";
-        this.parameters = new String[]{"picard", "CleanSam", "INPUT="+this.inputfile.get(0), "OUTPUT="+ output, "VALIDATION_STRINGENCY=SILENT"};
+        //Picard names the index .cleaned.bai, see AModule.getIndexFiles
+        this.parameters = new String[]{"picard", "CleanSam", "INPUT="+this.inputfile.get(0), "OUTPUT="+ output, "VALIDATION_STRINGENCY=SILENT", "CREATE_INDEX=true"};
         this.outputfile = new ArrayList<>();
         this.outputfile.add(output);
     }
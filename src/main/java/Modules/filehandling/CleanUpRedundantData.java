@@ -17,6 +17,7 @@
 package Modules.filehandling;
 
 import IO.Communicator;
+import IO.ScratchSpace;
 import Modules.AModule;
 
 import java.util.ArrayList;
@@ -65,6 +66,17 @@ public class CleanUpRedundantData extends AModule {
         }
 
 
+        //The mappers write BAM instead of SAM directly, these files are just as redundant as the SAM files were
+        d = new File(this.communicator.getGUI_resultspath()+"/3-Mapper");
+
+        if ( d.isDirectory() ) {
+            for (File f : d.listFiles()) {
+                if ( f.getName().endsWith(".bam") && !f.getName().endsWith("_realigned.bam") ) {
+                    remove_bam_unsorted_data += combiner + "rm " + f.getPath();
+                }
+            }
+        }
+
         //RMdup stuff
 
         d = new File(this.communicator.getGUI_resultspath()+"/5-DeDup");
@@ -86,8 +98,14 @@ public class CleanUpRedundantData extends AModule {
             remove_unprefixed_fastq_files += "rm " + fq + combiner;
         }
 
+        //Whatever is left on the scratch disk (e.g. the .sai files) is not needed anymore either
+        String remove_scratch_data = "";
+        if ( ScratchSpace.isEnabled() ) {
+            remove_scratch_data = "rm -rf " + ScratchSpace.getFolder(this.communicator.getGUI_resultspath()) + combiner;
+        }
+
         return new String[] {
-                "/bin/sh", "-c", remove_sam_data + remove_sam_sai  + remove_bam_unsorted_data + remove_unprefixed_fastq_files
+                "/bin/sh", "-c", remove_sam_data + remove_sam_sai  + remove_bam_unsorted_data + remove_unprefixed_fastq_files + remove_scratch_data
         };
     }
 
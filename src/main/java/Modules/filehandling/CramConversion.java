@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Modules.filehandling;
+
+import IO.Communicator;
+import Modules.AModule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Converts the BAM files kept in the results folder to reference based CRAM files with a .crai index, once all
+ * other modules are done with them (QualiMap, GATK 3, mapDamage and schmutzi only read BAM files).
+ * A BAM file is only removed after its CRAM file was written and indexed successfully, so files that were not mapped
+ * against the reference of the run (e.g. against the schmutzi MT reference) simply stay BAM files.
+ * BAM files that are links of each other (see SamtoolsSort) are converted once, the other names become links of that CRAM file.
+ */
+public class CramConversion extends AModule {
+
+    public CramConversion(Communicator c) {
+        super(c);
+        this.outputfile = new ArrayList<String>();
+        this.outputfile.add(c.getGUI_resultspath());
+        setParameters();
+    }
+
+    @Override
+    public void setParameters() {};
+
+    // The files to convert are only known at runtime
+    @Override
+    public String[] getParameters() {
+        String combiner = "; ";
+        String convert = "echo \"No BAM files to convert\"";
+        HashMap<Object, String> converted = new HashMap<Object, String>();
+
+        for (String folder : new String[]{"/4-Samtools", "/5-DeDup"}) {
+            File d = new File(this.communicator.getGUI_resultspath() + folder);
+            if ( !d.isDirectory() ) {
+                continue;
+            }
+            for (File f : d.listFiles()) {
+                if ( f.getName().endsWith(".bam") ) {
+                    String bam = f.getPath();
+                    String cram = bam.substring(0, bam.length() - ".bam".length()) + ".cram";
+                    Object inode = getFileKey(f);
+                    if ( inode != null && converted.containsKey(inode) ) {
+                        String first = converted.get(inode);
+                        convert += combiner + "ln -f " + first + " " + cram + " && ln -f " + first + ".crai " + cram + ".crai" +
+                                " && rm -f " + bam + getIndexList(bam);
+                        continue;
+                    }
+                    if ( inode != null ) {
+                        converted.put(inode, cram);
+                    }
+                    convert += combiner + "samtools view -@ " + this.communicator.getCpucores() + " -C -T " + this.communicator.getGUI_reference() +
+                            " -o " + cram + " " + bam + " && samtools index " + cram + " && rm -f " + bam + getIndexList(bam);
+                }
+            }
+        }
+
+        return new String[]{"/bin/sh", "-c", convert};
+    }
+
+    private static String getIndexList(String bam) {
+        String list = "";
+        for (String index : AModule.getIndexFiles(bam)) {
+            list += " " + index;
+        }
+        return list;
+    }
+
+    /**
+     * Device and inode of the file, or null if the file system does not provide them.
+     */
+    private static Object getFileKey(File f) {
+        try {
+            return Files.readAttributes(f.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getOutputfolder() {
+        return this.getResultfolder();
+    }
+}
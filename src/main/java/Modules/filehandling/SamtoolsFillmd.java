@@ -33,18 +33,31 @@ public class SamtoolsFillmd extends AModule {
 
     @Override
     public void setParameters() {
-        String output_stem = Files.getNameWithoutExtension(this.getInputfile().get(0));
-        String outfile = getOutputfolder()+"/"+output_stem+".MD.bam";
-
-        String samtools = "samtools " + "fillmd -b " + this.inputfile.get(0) + " " + this.communicator.getGUI_reference() + " > " +
-                outfile;
-        if ( this.communicator.getSchmutzi_mt_ref() != null) {
-          samtools = "samtools " + "fillmd -b " + this.inputfile.get(0) + " " + this.communicator.getSchmutzi_mt_ref() + " > " +
-                  outfile;
-        }
-        this.parameters = new String[]{"/bin/sh", "-c", samtools};
+        String outfile = getOutputfile(getOutputfolder(), this.inputfile.get(0));
         this.outputfile = new ArrayList<>();
         outputfile.add(outfile);
+
+        //SamtoolsSort DEDUP already computes the MD tags while sorting
+        if ( AModule.isUpToDate(outfile, this.inputfile.get(0)) ) {
+            this.parameters = getSkipParameters(outfile + " was written together with " + this.inputfile.get(0));
+            return;
+        }
+
+        //fillmd itself has no option for the compression level, so it writes uncompressed BAM and samtools view compresses
+        String samtools = "samtools " + "fillmd -u " + this.inputfile.get(0) + " " + getReference(this.communicator) +
+                " | samtools view -b -l " + getCompressionLevel() + " -o " + outfile + " -";
+        this.parameters = new String[]{"/bin/sh", "-c", samtools};
+    }
+
+    public static String getOutputfile(String outputfolder, String input) {
+        return outputfolder + "/" + Files.getNameWithoutExtension(input) + ".MD.bam";
+    }
+
+    public static String getReference(Communicator c) {
+        if ( c.getSchmutzi_mt_ref() != null ) {
+            return c.getSchmutzi_mt_ref();
+        }
+        return c.getGUI_reference();
     }
 
     @Override
@@ -17,9 +17,20 @@
 package Modules.filehandling;
 
 import IO.Communicator;
+import IO.RuntimeOptions;
+import IO.SamtoolsVersion;
 import Modules.AModule;
 import com.google.common.io.Files;
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSortOrderChecker;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.ArrayList;
 
@@ -32,6 +43,8 @@ public class SamtoolsSort extends AModule {
     public static final int CIRCULARMAPPER = 1;
     public static final int UNFILTERED = 2;
     public static final int DEDUP = 3;
+    private boolean inputSorted = false;
+    private String inputCompressionLevel = null;
 
     public SamtoolsSort(Communicator c){
         super(c);
@@ -47,7 +60,7 @@ public class SamtoolsSort extends AModule {
         if ( !this.communicator.isUsesystemtmpdir() ) {
             AModule.setEnvironmentForParameterReplace (env,
                     "TMPDIR",
-                    getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                    getTemporaryFolder());
         }
     }
 
@@ -58,8 +71,144 @@ public class SamtoolsSort extends AModule {
         String output_path = getOutputfolder()+"/"+output_stem+".sorted.bam";
         outputfile.add(output_path);
 
-        this.parameters = new String[]{"samtools","sort","-@", this.communicator.getCpucores(),
-                "-m", String.valueOf((Integer.parseInt(this.communicator.getMaxmemory())) / Integer.parseInt(communicator.getCpucores()))+"G", this.inputfile.get(0), "-o", output_path};
+        //A module that is skipped as DONE (resumed run) does not need its input read for the sort order check
+        if ( inputSorted || (!hasbeenExecuted() && isCoordinateSorted(this.inputfile.get(0))) ) {
+            //No need to spend memory and temporary disk space on sorting, a (hard) link is enough
+            String link = "ln -f " + this.inputfile.get(0) + " " + output_path + " || cp " + this.inputfile.get(0) + " " + output_path;
+            String index = AModule.getUpToDateIndex(this.inputfile.get(0));
+            if ( index != null ) {
+                link = "(" + link + ") && (ln -f " + index + " " + output_path + ".bai || cp " + index + " " + output_path + ".bai)";
+            }
+            if ( !isInputCompressedAsOutput() ) {
+                //e.g. a quickly compressed intermediate file, the retained sorted file is recompressed in one streaming pass
+                link = "samtools view -@ " + this.communicator.getCpucores() + " -b -l " + getCompressionLevel() + " " +
+                        SamtoolsVersion.getIndexedOutputOptions(output_path) + " " + this.inputfile.get(0);
+            }
+            if ( isFillmdFused() ) {
+                String failures = getFailuresFile(output_stem);
+                link = checkingStages("(" + link + ") && " + getFillmdWriter(this.inputfile.get(0), output_path, failures), failures);
+            }
+            this.parameters = new String[]{"/bin/sh", "-c", link};
+            return;
+        }
+
+        if ( isFillmdFused() ) {
+            //Sorted records go to both the sorted BAM and fillmd, the contamination estimation then finds its input up to date
+            String fifo = getIntermediateFolder() + "/" + output_stem + ".fillmd.fifo";
+            String failures = getFailuresFile(output_stem);
+            String sort = "samtools sort -@ " + this.communicator.getCpucores() + " -m " + getMemoryPerThread() + " -l 0 -o - " + this.inputfile.get(0);
+            String write = "samtools view -@ " + this.communicator.getCpucores() + " -b -l " + getCompressionLevel() + " " +
+                    SamtoolsVersion.getIndexedOutputOptions(output_path) + " -";
+            this.parameters = new String[]{"/bin/sh", "-c", checkingStages("rm -f " + fifo + " && mkfifo " + fifo + " || exit 1; " +
+                    "(" + getFillmdWriter("-", output_path, failures) + ") < " + fifo + " & fillmd=$!; " +
+                    recordingFailure(sort, failures) + " | " + recordingFailure("tee " + fifo, failures) + " | " + write + "; status=$?; " +
+                    "wait $fillmd || status=1; rm -f " + fifo + "; [ $status -eq 0 ]", failures)};
+            return;
+        }
+
+        //Write the BAI while sorting, the following SamtoolsIndex then finds it up to date and does not read the BAM again
+        if ( SamtoolsVersion.isIndexWrittenWhileWriting() ) {
+            this.parameters = new String[]{"samtools","sort","-@", this.communicator.getCpucores(),
+                    "-m", getMemoryPerThread(),
+                    "-l", getCompressionLevel(), this.inputfile.get(0),
+                    "--write-index", "-o", output_path + "##idx##" + output_path + ".bai"};
+        } else {
+            this.parameters = new String[]{"samtools","sort","-@", this.communicator.getCpucores(),
+                    "-m", getMemoryPerThread(),
+                    "-l", getCompressionLevel(), this.inputfile.get(0),
+                    "-o", output_path};
+        }
+    }
+
+    private String getMemoryPerThread() {
+        return String.valueOf((Integer.parseInt(this.communicator.getMaxmemory())) / Integer.parseInt(communicator.getCpucores()))+"G";
+    }
+
+    /**
+     * The deduplicated BAM file is the input of SamtoolsFillmd when schmutzi runs, so the MD tags are computed
+     * on the stream of sorted records instead of reading the sorted file again. Not if the PMD score filter runs
+     * in between, fillmd then reads the filtered file.
+     */
+    private boolean isFillmdFused() {
+        return currentConfiguration == DEDUP && this.communicator.isSchmutzi_run()
+                && !(this.communicator.isRun_pmdtools() && this.communicator.isPMDSFilter());
+    }
+
+    /**
+     * fillmd on sortedInput writing the indexed BAM file SamtoolsFillmd would write for the sorted file. A failing
+     * fillmd is recorded in failures, see checkingStages.
+     */
+    private String getFillmdWriter(String sortedInput, String sortedFile, String failures) {
+        String mdFile = SamtoolsFillmd.getOutputfile(getOutputfolder(), sortedFile);
+        String writer = recordingFailure("samtools fillmd -u " + sortedInput + " " + SamtoolsFillmd.getReference(this.communicator), failures) +
+                " | samtools view -b -l " + getCompressionLevel() + " " + SamtoolsVersion.getIndexedOutputOptions(mdFile) + " -";
+        return SamtoolsVersion.isIndexWrittenWhileWriting() ? writer : writer + " && samtools index " + mdFile;
+    }
+
+    /**
+     * The exit code of a pipeline in sh is the one of its last command, there is no pipefail. Every other stage is
+     * wrapped by recordingFailure, which notes its failure in this file, and checkingStages fails the script then.
+     */
+    private String getFailuresFile(String output_stem) {
+        return getIntermediateFolder() + "/" + output_stem + ".pipeline.failures";
+    }
+
+    private static String recordingFailure(String stage, String failures) {
+        return "{ " + stage + " || echo $? >> " + failures + "; }";
+    }
+
+    private static String checkingStages(String script, String failures) {
+        return "rm -f " + failures + "; " + script + "; status=$?; [ -s " + failures + " ] && status=1; rm -f " + failures + "; exit $status";
+    }
+
+    /**
+     * Checks the @HD SO: tag of the BAM header and, unless -Deager.sort.verify=false is given, also checks the order
+     * of all records, as some tools keep SO:coordinate in the header without writing sorted output. Reading stops at
+     * the first record out of order, only sorted files are read completely. The setParameters of a module is called
+     * right before it runs (see ModulePool), so this is done only for sorts that actually run.
+     */
+    public static boolean isCoordinateSorted(String bam) {
+        if ( !new File(bam).isFile() ) {
+            return false;
+        }
+        try (SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(new File(bam))) {
+            if ( reader.getFileHeader().getSortOrder() != SAMFileHeader.SortOrder.coordinate ) {
+                return false;
+            }
+            if ( !RuntimeOptions.isSortOrderVerified() ) {
+                return true;
+            }
+            SAMSortOrderChecker checker = new SAMSortOrderChecker(SAMFileHeader.SortOrder.coordinate);
+            SAMRecordIterator iterator = reader.iterator();
+            while ( iterator.hasNext() ) {
+                if ( !checker.isSorted(iterator.next()) ) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException | SAMException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A sorted input may only be linked if it was written with the level of the sorted file, otherwise it is recompressed.
+     * Inputs of unknown level only are linked for sorted files that are intermediate files themselves.
+     */
+    private boolean isInputCompressedAsOutput() {
+        if ( inputCompressionLevel == null ) {
+            return getCompressionLevel().equals(RuntimeOptions.getIntermediateCompressionLevel());
+        }
+        return getCompressionLevel().equals(inputCompressionLevel);
+    }
+
+    /**
+     * Set by Runner.PlanOptimizer when the input is known to be coordinate sorted already, together with the compression
+     * level it was written with. The sorted file is then just linked, or recompressed if the levels differ.
+     */
+    public void setInputSorted(boolean inputSorted, String inputCompressionLevel) {
+        this.inputSorted = inputSorted;
+        this.inputCompressionLevel = inputCompressionLevel;
     }
 
     @Override
@@ -16,10 +16,16 @@
 
 package Modules.filehandling;
 
+import IO.BAMWriterProcess;
 import IO.Communicator;
+import IO.FlagstatCounter;
+import IO.ScratchSpace;
 import Modules.AModule;
 import com.google.common.io.Files;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 
 /**
@@ -35,6 +41,8 @@ public class SamtoolsView extends AModule {
     public static final int EXTRACTMAPPED = 7;
     public static final int EXTRACTUNMAPPED = 8;
     public static final int FILTERED = 9;
+    public static final int DEFAULTONLYMAPPED = 10;
+    private boolean inputUnchanged = false;
 
     public SamtoolsView(Communicator c){
         super(c);
@@ -48,13 +56,13 @@ public class SamtoolsView extends AModule {
     @Override
     public void setParameters() {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
-        String output_path = getOutputfolder();
+        String output_path = producesIntermediateOutput() ? getIntermediateFolder() : getOutputfolder();
 
         this.outputfile = new ArrayList<String>();
 
         switch (currentConfiguration){
-            case DEFAULT: this.parameters = getDefaultParameterList();
-                this.outputfile.add(output_path+"/"+output_stem+".mapped.bam");
+            case DEFAULT: this.outputfile.add(output_path+"/"+output_stem+".mapped.bam");
+                this.parameters = inputUnchanged ? getLinkParameters() : getDefaultParameterList();
                 break;
             case ONLYUNMAPPED: this.parameters = getOnlyUnmapped();
                 this.outputfile.add(output_path+"/"+output_stem+".unmapped.bam");
@@ -77,6 +85,9 @@ public class SamtoolsView extends AModule {
             case FILTERED: this.parameters = getQualityFiltered();
                 this.outputfile.add(output_path+ "/"+ output_stem +".qF.bam");
                 break;
+            case DEFAULTONLYMAPPED: this.parameters = getDefaultParameterList();
+                this.outputfile.add(output_path+"/"+output_stem+".mapped.mappedonly.bam");
+                break;
         }
 
     }
@@ -86,14 +97,14 @@ public class SamtoolsView extends AModule {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
         String output_path = this.communicator.getGUI_resultspath() + "/4-Samtools";
         return new String[]{"samtools", "view", "-@", String.valueOf(this.communicator.getCpucores()),
-                "-f4", "-q", this.communicator.getMapper_mapquality_filter(),"-b", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".extractunmapped.bam"};
+                "-f4", "-q", this.communicator.getMapper_mapquality_filter(), "-l", getCompressionLevel(), "-b", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".extractunmapped.bam"};
     }
 
     private String[] getExtractMappedParams() {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
         String output_path = this.communicator.getGUI_resultspath() + "/4-Samtools";
         return new String[]{"samtools", "view", "-@", String.valueOf(this.communicator.getCpucores()),
-                "-F4", "-q", this.communicator.getMapper_mapquality_filter(), "-b", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".extractmapped.bam"};
+                "-F4", "-q", this.communicator.getMapper_mapquality_filter(), "-l", getCompressionLevel(), "-b", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".extractmapped.bam"};
     }
 
 
@@ -107,36 +118,111 @@ public class SamtoolsView extends AModule {
     }
 
     private String[] getOnlyMapped() {
-        String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
-        String output_path = this.communicator.getGUI_resultspath() + "/4-Samtools";
-        return new String[]{"samtools", "view", "-@", String.valueOf(this.communicator.getCpucores()), "-F4", "-b", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".mappedonly.bam"};
+        return new String[]{"samtools", "view", "-@", String.valueOf(this.communicator.getCpucores()), "-F4", "-u", this.inputfile.get(0)};
     }
 
     private String[] getOnlyUnmapped() {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
         String output_path = this.communicator.getGUI_resultspath() + "/4-Samtools";
-        return new String[]{"samtools", "view", "-f4", "-@", String.valueOf(this.communicator.getCpucores()), "-q", this.communicator.getMapper_mapquality_filter(),"-b", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".unmapped.bam"};    }
+        return new String[]{"samtools", "view", "-f4", "-@", String.valueOf(this.communicator.getCpucores()), "-q", this.communicator.getMapper_mapquality_filter(), "-l", getCompressionLevel(), "-b", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".unmapped.bam"};    }
 
     private String[] getQualityFiltered() {
-        String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
-        String output_path = this.communicator.getGUI_resultspath() + "/4-Samtools";
         return new String[]{"samtools", "view", "-@", String.valueOf(this.communicator.getCpucores()),
-                "-q", this.communicator.getMapper_mapquality_filter(),"-b", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".qF.bam"};
+                "-q", this.communicator.getMapper_mapquality_filter(),"-u", this.inputfile.get(0)};
     }
 
     private String[] getDefaultParameterList() {
-        String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
-        String output_path = this.communicator.getGUI_resultspath() + "/4-Samtools";
         return new String[]{"samtools", "view", "-@", String.valueOf(this.communicator.getCpucores()),
-                "-bS", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".mapped.bam"};
+                "-u", this.inputfile.get(0)};
+    }
+
+    /**
+     * DEFAULT on the output of a DEFAULT or ONLYMAPPED view would only write the same records again, the file and its
+     * statistics are linked instead so the following modules and the results folder keep their usual file names.
+     */
+    private String[] getLinkParameters() {
+        String input = this.inputfile.get(0);
+        String output = this.outputfile.get(0);
+        return new String[]{"/bin/sh", "-c", "(ln -f " + input + " " + output + " || cp " + input + " " + output + ") && " +
+                "cp " + ScratchSpace.toResultsPath(input) + ".stats " + getStatsfile()};
     }
 
     private String[] getHybridSAM() {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
         String output_path = this.communicator.getGUI_resultspath() + "/4-Samtools";
         return new String[]{"samtools", "view", "-@", String.valueOf(this.communicator.getCpucores()),
-                "-q", this.communicator.getMapper_mapquality_filter(),"-bS", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".hybridmap.bam"};
+                "-q", this.communicator.getMapper_mapquality_filter(), "-l", getCompressionLevel(), "-bS", this.inputfile.get(0), "-o", output_path+ "/"+ output_stem +".hybridmap.bam"};
+
+    }
+
+    /**
+     * The DEFAULT, ONLYMAPPED and FILTERED configurations let samtools write uncompressed BAM to stdout.
+     * EAGER counts the flagstat categories on that stream and hands the bytes on to a second samtools
+     * process compressing the final BAM, so the .stats files no longer require another pass over the output.
+     * DEFAULTONLYMAPPED is DEFAULT followed by ONLYMAPPED in one pass (see Runner.PlanOptimizer): all reads
+     * are counted, only mapped reads are written.
+     */
+    @Override
+    public boolean consumesProcessOutput() {
+        return producesIntermediateOutput() && !inputUnchanged;
+    }
+
+    @Override
+    public void consumeProcessOutput(InputStream processOutput) throws IOException {
+        BAMWriterProcess writer = currentConfiguration == DEFAULTONLYMAPPED
+                ? new BAMWriterProcess(this.outputfile.get(0), String.valueOf(this.communicator.getCpucores()), getCompressionLevel(), "-F4")
+                : new BAMWriterProcess(this.outputfile.get(0), String.valueOf(this.communicator.getCpucores()), getCompressionLevel());
+        FlagstatCounter counter = new FlagstatCounter();
+        try {
+            counter.countAndCopy(processOutput, writer.getOutputStream());
+        } catch (IOException | RuntimeException e) {
+            //htsjdk reports malformed records unchecked, samtools must not be left blocking on a full pipe either way
+            processOutput.close();
+            writer.abort();
+            throw e instanceof IOException ? (IOException) e : new IOException("Could not read " + this.inputfile.get(0) + ": " + e, e);
+        }
+        writer.close();
+        counter.write(new File(getStatsfile()));
+    }
+
+    /**
+     * The statistics are kept in the results folder, even if the BAM file itself is written to scratch.
+     */
+    private String getStatsfile() {
+        switch (currentConfiguration){
+            case FILTERED:
+                return ScratchSpace.toResultsPath(this.outputfile.get(0)) + ".qF.stats";
+            case DEFAULTONLYMAPPED:
+                return getOutputfolder() + "/" + Files.getNameWithoutExtension(this.inputfile.get(0)) + ".mapped.bam.stats";
+            default:
+                return ScratchSpace.toResultsPath(this.outputfile.get(0)) + ".stats";
+        }
+    }
+
+    /**
+     * The unsorted and the not yet sorted quality filtered BAM files are only steps towards the sorted files.
+     */
+    @Override
+    public boolean producesIntermediateOutput() {
+        switch (currentConfiguration){
+            case DEFAULT:
+            case ONLYMAPPED:
+            case FILTERED:
+            case DEFAULTONLYMAPPED:
+                return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * Set by Runner.PlanOptimizer when the input is the unfiltered output of another view, see getLinkParameters.
+     */
+    public void setInputUnchanged(boolean inputUnchanged) {
+        this.inputUnchanged = inputUnchanged;
+    }
 
+    public int getCurrentConfiguration() {
+        return currentConfiguration;
     }
 
     @Override
@@ -162,6 +248,8 @@ public class SamtoolsView extends AModule {
                 return "Extract Mapped Reads";
             case EXTRACTUNMAPPED:
                 return "Extract Unmapped Reads";
+            case DEFAULTONLYMAPPED:
+                return "defaultOnlyMapped";
             default: return "default";
         }
     }
@@ -34,13 +34,18 @@ public class AddOrReplaceReadGroups extends AModule {
     @Override
     public void setParameters() {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
-        String fileout = getOutputfolder()+"/"+output_stem+".RG.bam";
+        String fileout = getIntermediateFolder()+"/"+output_stem+".RG.bam";
         this.parameters = new String[]{"picard", "AddOrReplaceReadGroups", "I="+this.inputfile.get(0), "O="+fileout,
                                         "RGLB=lib", "RGPL=illumina", "RGPU=4410", "RGSM=Project", "VALIDATION_STRINGENCY=SILENT"};
         this.outputfile = new ArrayList<String>();
         outputfile.add(fileout);
     }
 
+    @Override
+    public boolean producesIntermediateOutput() {
+        return true;
+    }
+
     @Override
     public String getOutputfolder() {
         return this.communicator.getGUI_resultspath() + "/4-Samtools";
@@ -50,7 +50,7 @@ public class GATKHaplotypeCaller extends AModule {
           AModule.setEnvironmentForParameterPrepend (env,
                                                      " ",
                                                      "JAVA_TOOL_OPTIONS",
-                                                     "-Djava.io.tmpdir=" + getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                                                     "-Djava.io.tmpdir=" + getTemporaryFolder());
         }
     }
 
@@ -35,7 +35,7 @@ public class GATKRealignerTargetCreator extends AModule {
           AModule.setEnvironmentForParameterPrepend (env,
                                                      " ",
                                                      "JAVA_TOOL_OPTIONS",
-                                                     "-Djava.io.tmpdir=" + getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                                                     "-Djava.io.tmpdir=" + getTemporaryFolder());
         }
     }
 
@@ -48,7 +48,7 @@ public class GATKUnifiedGenotyper extends AModule {
           AModule.setEnvironmentForParameterPrepend (env,
                                                      " ",
                                                      "JAVA_TOOL_OPTIONS",
-                                                     "-Djava.io.tmpdir=" + getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                                                     "-Djava.io.tmpdir=" + getTemporaryFolder());
         }
     }
 
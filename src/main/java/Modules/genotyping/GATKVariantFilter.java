@@ -37,7 +37,7 @@ public class GATKVariantFilter extends AModule {
           AModule.setEnvironmentForParameterPrepend (env,
                                                      " ",
                                                      "JAVA_TOOL_OPTIONS",
-                                                     "-Djava.io.tmpdir=" + getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                                                     "-Djava.io.tmpdir=" + getTemporaryFolder());
         }
     }
 
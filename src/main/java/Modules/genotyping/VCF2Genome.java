@@ -17,9 +17,12 @@
 package Modules.genotyping;
 
 import IO.Communicator;
+import IO.ConsensusGenome;
+import IO.RuntimeOptions;
 import Modules.AModule;
 import com.google.common.io.Files;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -52,7 +55,30 @@ public class VCF2Genome extends AModule {
 
     }
 
+    @Override
+    public boolean runsInProcess() {
+        return RuntimeOptions.isNativeConsensusEnabled();
+    }
 
+    /**
+     * Writes the same files as the vcf2genome command above, the statistics as a table.
+     */
+    @Override
+    public void runInProcess() throws IOException {
+        String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
+        String output_path = getOutputfolder();
+        ConsensusGenome genome = new ConsensusGenome(this.communicator.getGUI_reference(),
+                Double.parseDouble(String.valueOf(this.communicator.getVcf2draft_minquality())),
+                Integer.parseInt(String.valueOf(this.communicator.getVcf2dmincov())),
+                Double.parseDouble(String.valueOf(this.communicator.getVcf2dminsnpall())));
+        String draft = output_path + "/" + output_stem + ".fasta";
+        genome.build(this.inputfile.get(0), Integer.parseInt(this.communicator.getCpucores()), output_stem,
+                draft, output_path + "/" + output_stem + ".refMod.fasta", output_path + "/" + output_stem + ".nr1234.fasta");
+        genome.writeStatistics(output_path + "/" + output_stem + ".fasta.stats");
+        if ( RuntimeOptions.getConsensusAlignment() != null ) {
+            ConsensusGenome.appendDraftTo(RuntimeOptions.getConsensusAlignment(), draft);
+        }
+    }
 
     @Override
     public String getOutputfolder() {
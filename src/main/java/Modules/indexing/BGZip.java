@@ -16,10 +16,16 @@
 
 package Modules.indexing;
 
+import IO.BGZFTabixWriter;
 import IO.Communicator;
+import IO.RuntimeOptions;
 import Modules.AModule;
 import com.google.common.io.Files;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 
 /**
@@ -39,6 +45,39 @@ public class BGZip extends AModule {
         this.outputfile.add(this.inputfile.get(0)+".gz");
     }
 
+    /**
+     * Compresses the file within EAGER, with one thread per core, and writes the tabix index of VCF files in the
+     * same pass (see IO.BGZFTabixWriter), if enabled by -Deager.bgzip.native=true. Like bgzip -f, the uncompressed
+     * file is replaced.
+     */
+    @Override
+    public boolean runsInProcess() {
+        return RuntimeOptions.isNativeBGZipEnabled();
+    }
+
+    @Override
+    public void runInProcess() throws IOException {
+        File input = new File(this.inputfile.get(0));
+        File output = new File(this.outputfile.get(0));
+        boolean vcf = input.getName().endsWith(".vcf");
+        try (InputStream in = new FileInputStream(input);
+             BGZFTabixWriter writer = new BGZFTabixWriter(output, Integer.parseInt(getCompressionLevel()),
+                     Integer.parseInt(this.communicator.getCpucores()), vcf)) {
+            byte[] buffer = new byte[1 << 20];
+            int read;
+            while ( (read = in.read(buffer)) != -1 ) {
+                writer.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            output.delete();
+            new File(output.getPath() + ".tbi").delete();
+            throw e;
+        }
+        if ( !input.delete() ) {
+            throw new IOException("Could not remove " + input + " after compressing it.");
+        }
+    }
+
     @Override
     public String getOutputfolder() {
         return null;
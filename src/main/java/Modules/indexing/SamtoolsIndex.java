@@ -44,7 +44,12 @@ public class SamtoolsIndex extends AModule {
     @Override
     public void setParameters() {
         this.outputfile = this.inputfile;
-        this.parameters = new String[]{"samtools","index", this.inputfile.get(0)};
+        String index = this.inputfile.get(0).endsWith(".cram") ? this.inputfile.get(0) + ".crai" : AModule.getUpToDateIndex(this.inputfile.get(0));
+        if ( index != null && AModule.isUpToDate(index, this.inputfile.get(0)) ) {
+            this.parameters = getSkipParameters(index + " is already up to date");
+        } else {
+            this.parameters = new String[]{"samtools","index", this.inputfile.get(0)};
+        }
     }
 
     @Override
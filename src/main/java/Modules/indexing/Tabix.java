@@ -35,6 +35,10 @@ public class Tabix extends AModule{
     public void setParameters() {
         String output_stem = Files.getNameWithoutExtension(this.getInputfile().get(0));
         this.parameters = new String[]{"tabix","-p","vcf", this.getInputfile().get(0)};
+        //BGZip indexes VCF files while compressing them
+        if ( AModule.isUpToDate(this.inputfile.get(0) + ".tbi", this.inputfile.get(0)) ) {
+            this.parameters = getSkipParameters("the index was written by BGZip");
+        }
         this.outputfile = new ArrayList<>();
         this.outputfile.add(this.inputfile.get(0)+".tbi");
     }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Modules.mapping;
+
+import IO.BAMWriterProcess;
+import IO.Communicator;
+import Modules.AModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Base class of the mappers writing SAM to stdout, which is compressed to BAM right away so the uncompressed SAM
+ * never hits the disk. The mapped BAM file is an intermediate file, it is sorted and filtered afterwards.
+ */
+public abstract class ASAMMapper extends AModule {
+
+    public ASAMMapper(Communicator c) {
+        super(c);
+    }
+
+    @Override
+    public boolean consumesProcessOutput() {
+        return true;
+    }
+
+    @Override
+    public void consumeProcessOutput(InputStream processOutput) throws IOException {
+        BAMWriterProcess.copy(processOutput, this.outputfile.get(0), String.valueOf(this.communicator.getCpucores()), getCompressionLevel());
+    }
+
+    @Override
+    public boolean producesIntermediateOutput() {
+        return true;
+    }
+}
@@ -63,7 +63,7 @@ public class BWAAlign extends AModule {
                 "-n", this.communicator.getMapper_mismatches(),
                 "-l", this.communicator.getMapper_seedlength(),
                 this.communicator.getMapper_advanced(), "-f",
-                getOutputfolder() + "/" + output_stem + ".sai"};
+                getIntermediateFolder() + "/" + output_stem + ".sai"};
 
         return parameters;
     }
@@ -75,12 +75,12 @@ public class BWAAlign extends AModule {
         String commandOne = "bwa aln -t " + this.communicator.getCpucores() +
                 " " + this.communicator.getGUI_reference() + " " + this.inputfile.get(0) + " " +
                 "-n " + this.communicator.getMapper_mismatches() + " -l " + this.communicator.getMapper_seedlength() +
-                " " + this.communicator.getMapper_advanced() + " -f " + getOutputfolder() + "/" + output_stem0 + ".sai";
+                " " + this.communicator.getMapper_advanced() + " -f " + getIntermediateFolder() + "/" + output_stem0 + ".sai";
 
         String commandTwo = "bwa aln -t " + this.communicator.getCpucores() +
                 " " + this.communicator.getGUI_reference() + " " + this.inputfile.get(1) + " " +
                 "-n " + this.communicator.getMapper_mismatches() + " -l " + this.communicator.getMapper_seedlength() +
-                " " + this.communicator.getMapper_advanced() + " -f " + getOutputfolder() + "/" + output_stem1 + ".sai";
+                " " + this.communicator.getMapper_advanced() + " -f " + getIntermediateFolder() + "/" + output_stem1 + ".sai";
 
         String[] params = new String[]{"/bin/sh", "-c", commandOne + " && " + commandTwo};
 
@@ -95,7 +95,7 @@ public class BWAAlign extends AModule {
                 "-n", this.communicator.getMapper_mismatches(),
                 "-l", this.communicator.getMapper_seedlength(),
                 this.communicator.getMapper_advanced(), "-f",
-                getOutputfolder() + "/" + output_stem + ".MT.sai"};
+                getIntermediateFolder() + "/" + output_stem + ".MT.sai"};
     }
 
 
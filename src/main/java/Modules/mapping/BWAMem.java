@@ -17,7 +17,6 @@
 package Modules.mapping;
 
 import IO.Communicator;
-import Modules.AModule;
 import com.google.common.io.Files;
 
 import java.util.ArrayList;
@@ -25,7 +24,7 @@ import java.util.ArrayList;
 /**
  * Created by peltzer on 01.09.14
  */
-public class BWAMem extends AModule {
+public class BWAMem extends ASAMMapper {
     public static final int DEFAULT = 0;
     public int currentConfiguration = DEFAULT;
     public static final int PAIREDENDWITHOUTMERGE = 1;
@@ -46,10 +45,10 @@ public class BWAMem extends AModule {
 
         switch (currentConfiguration){
             case DEFAULT: this.parameters = getDefaultParameters();
-                this.outputfile.add(getOutputfolder() + "/" + output_stem + ".bwamem.sam");
+                this.outputfile.add(getIntermediateFolder() + "/" + output_stem + ".bwamem.bam");
                 break;
             case PAIREDENDWITHOUTMERGE: this.parameters = getPairedEndWithoutMergeParameters();
-                this.outputfile.add(getOutputfolder() + "/" + output_stem + ".bwamem.sam");
+                this.outputfile.add(getIntermediateFolder() + "/" + output_stem + ".bwamem.bam");
                 break;
         }
 
@@ -57,23 +56,13 @@ public class BWAMem extends AModule {
     }
 
     private String[] getPairedEndWithoutMergeParameters() {
-        String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
-        String bwamem = "bwa mem" + " -t " + this.communicator.getCpucores() +
-                " " + this.communicator.getGUI_reference() + " " +
-                this.inputfile.get(0) + " " + this.inputfile.get(1) + " " + ">" + " " +
-                getOutputfolder() + "/" + output_stem + ".bwamem.sam";
-        String[] params = new String[]{"/bin/sh", "-c", bwamem};
-        return params;
+        return new String[]{"bwa", "mem", "-t", this.communicator.getCpucores(),
+                this.communicator.getGUI_reference(), this.inputfile.get(0), this.inputfile.get(1)};
     }
 
     private String[] getDefaultParameters() {
-        String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
-        String bwamem = "bwa mem" + " -t " + this.communicator.getCpucores() +
-                " " + this.communicator.getGUI_reference() + " " +
-                this.inputfile.get(0) + " " + ">" + " " +
-                getOutputfolder() + "/" + output_stem + ".bwamem.sam";
-        String[] params = new String[]{"/bin/sh", "-c", bwamem};
-        return params;
+        return new String[]{"bwa", "mem", "-t", this.communicator.getCpucores(),
+                this.communicator.getGUI_reference(), this.inputfile.get(0)};
     }
 
     @Override
@@ -17,7 +17,6 @@
 package Modules.mapping;
 
 import IO.Communicator;
-import Modules.AModule;
 import com.google.common.io.Files;
 
 import java.util.ArrayList;
@@ -25,7 +24,7 @@ import java.util.ArrayList;
 /**
  * Created by peltzer on 9/18/14.
  */
-public class BWASampe extends AModule {
+public class BWASampe extends ASAMMapper {
 
 
 
@@ -40,12 +39,11 @@ public class BWASampe extends AModule {
 
         this.parameters = new String[]{"bwa", "sampe", "-r", this.communicator.getMapper_readgroup(),
                                         this.communicator.getGUI_reference(),
-                                        getOutputfolder()+"/"+output_stem1+".sai",
-                                        getOutputfolder()+"/"+output_stem2+".sai",
-                                        this.inputfile.get(0), this.inputfile.get(1),
-                                        "-f", getOutputfolder()+"/"+output_stem1+".sam"};
+                                        getIntermediateFolder()+"/"+output_stem1+".sai",
+                                        getIntermediateFolder()+"/"+output_stem2+".sai",
+                                        this.inputfile.get(0), this.inputfile.get(1)};
         this.outputfile = new ArrayList<String>();
-        this.outputfile.add(getOutputfolder()+"/"+output_stem1+".sam");
+        this.outputfile.add(getIntermediateFolder()+"/"+output_stem1+".bam");
 
     }
 
@@ -17,7 +17,6 @@
 package Modules.mapping;
 
 import IO.Communicator;
-import Modules.AModule;
 import com.google.common.io.Files;
 
 import java.util.ArrayList;
@@ -25,7 +24,7 @@ import java.util.ArrayList;
 /**
  * Created by peltzer on 24.01.14.
  */
-public class BWASamse extends AModule {
+public class BWASamse extends ASAMMapper {
     public static final int DEFAULT = 0;
     public static final int SAMSEMT = 1;
     public static final int SAMSEMTREMAP = 2;
@@ -55,20 +54,21 @@ public class BWASamse extends AModule {
     private String[] getDefaultParameters(){
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
         this.outputfile =  new ArrayList<String>();
-        outputfile.add(getOutputfolder()+"/"+output_stem+".sam");
+        outputfile.add(getIntermediateFolder()+"/"+output_stem+".bam");
         return new String[]{"bwa", "samse", "-r", this.communicator.getMapper_readgroup(),
                 this.communicator.getGUI_reference(),
-                getOutputfolder() + "/" + output_stem + ".sai",
-                this.inputfile.get(0), "-f", getOutputfolder() + "/" + output_stem + ".sam"};
+                getIntermediateFolder() + "/" + output_stem + ".sai",
+                this.inputfile.get(0)};
     }
 
     private String[] getSamseMTParameters(){
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
         this.outputfile = new ArrayList<String>();
+        //Not on the scratch disk: realignsamfile writes the retained _realigned.bam next to this file
         outputfile.add(getOutputfolder()+"/"+output_stem+".MT.sam");
         return new String[]{"bwa", "samse", "-r", this.communicator.getMapper_readgroup(),
                 this.communicator.getCM_referencemt_elong(),
-                getOutputfolder() + "/" + output_stem + ".MT.sai",
+                getIntermediateFolder() + "/" + output_stem + ".MT.sai",
                 this.inputfile.get(0), "-f", getOutputfolder() + "/" + output_stem + ".MT.sam"};
     }
 
@@ -76,6 +76,14 @@ public class BWASamse extends AModule {
 
 
 
+    /**
+     * The CircularMapper configuration still writes its SAM file, realignsamfile derives its output name from it.
+     */
+    @Override
+    public boolean consumesProcessOutput() {
+        return currentConfiguration != SAMSEMT;
+    }
+
     @Override
     public String getOutputfolder() {
         switch(currentConfiguration){
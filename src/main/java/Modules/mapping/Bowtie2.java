@@ -17,7 +17,6 @@
 package Modules.mapping;
 
 import IO.Communicator;
-import Modules.AModule;
 import com.google.common.io.Files;
 
 import java.util.ArrayList;
@@ -25,7 +24,7 @@ import java.util.ArrayList;
 /**
  * Created by peltzer on 17.07.14.
  */
-public class Bowtie2 extends AModule {
+public class Bowtie2 extends ASAMMapper {
 
     public Bowtie2(Communicator c) {
         super(c);
@@ -35,11 +34,11 @@ public class Bowtie2 extends AModule {
     @Override
     public void setParameters() {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
-        this.parameters = new String[]{"bowtie2", "-x", this.communicator.getGUI_reference(), "-U", this.inputfile.get(0), "-S",
-                            getOutputfolder()+"/"+output_stem + ".bt2.sam", "--end-to-end", "--very-sensitive" ,
+        this.parameters = new String[]{"bowtie2", "-x", this.communicator.getGUI_reference(), "-U", this.inputfile.get(0),
+                            "--end-to-end", "--very-sensitive" ,
                             "-p", this.communicator.getCpucores(), this.communicator.getMapper_advanced()};
         this.outputfile = new ArrayList<String>();
-        this.outputfile.add(getOutputfolder()+"/"+output_stem + ".bt2.sam");
+        this.outputfile.add(getIntermediateFolder()+"/"+output_stem + ".bt2.bam");
     }
 
     @Override
@@ -50,10 +50,15 @@ public class DeDup extends AModule {
           AModule.setEnvironmentForParameterPrepend (env,
                                                      " ",
                                                      "JAVA_TOOL_OPTIONS",
-                                                     "-Djava.io.tmpdir=" + getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                                                     "-Djava.io.tmpdir=" + getTemporaryFolder());
         }
     }
 
+    @Override
+    public boolean producesIntermediateOutput() {
+        return true;
+    }
+
     @Override
     public String getOutputfolder() {
         return this.communicator.getGUI_resultspath() + "/5-DeDup";
@@ -34,12 +34,17 @@ public class Stampy extends AModule {
     @Override
     public void setParameters() {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
-        String output_path =getOutputfolder();
+        String output_path = getIntermediateFolder();
         this.parameters = new String[]{"stampy", "-t", this.communicator.getCpucores(), "-g", this.communicator.getGUI_reference(), "-h", this.communicator.getGUI_reference(), "--bamkeepgoodreads", "-M", this.inputfile.get(0), "-o", output_path+"/"+output_stem+".stampy.sam"};
         this.outputfile = new ArrayList<String>();
         this.outputfile.add(output_path+"/"+output_stem+".stampy.sam");
     }
 
+    @Override
+    public boolean producesIntermediateOutput() {
+        return true;
+    }
+
     @Override
     public String getOutputfolder() {
         return this.communicator.getGUI_resultspath() + "/3-Mapper";
@@ -17,10 +17,16 @@
 package Modules.stats;
 
 import IO.Communicator;
+import IO.IndexedCounts;
+import IO.RuntimeOptions;
 import Modules.AModule;
 
 import com.google.common.io.Files;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
 public class CaptureOnTarget extends AModule {
 
     String captureBed = "";
@@ -44,6 +50,24 @@ public class CaptureOnTarget extends AModule {
         this.outputfile = this.inputfile;
     }
 
+    /**
+     * With -Deager.ontarget.native=true and an index only the blocks overlapping the capture regions are read (see
+     * IO.IndexedCounts), counting the same records into the same file as the samtools command above.
+     */
+    @Override
+    public boolean runsInProcess() {
+        return RuntimeOptions.isNativeOnTargetEnabled() && IndexedCounts.isIndexed(this.inputfile.get(0));
+    }
+
+    @Override
+    public void runInProcess() throws IOException {
+        long onTarget = IndexedCounts.countInRegions(this.inputfile.get(0), this.captureBed);
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(this.inputfile.get(0) + ".ontarget"));
+        bfw.write(onTarget + "\n");
+        bfw.flush();
+        bfw.close();
+    }
+
     @Override
     public String getOutputfolder() {
         return this.communicator.getGUI_resultspath() + "/5-DeDup";
@@ -17,10 +17,13 @@
 package Modules.stats;
 
 import IO.Communicator;
+import IO.ComplexityPlot;
+import IO.RuntimeOptions;
 import Modules.AModule;
 import com.google.common.io.Files;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Created by peltzer on 07.11.16
@@ -39,13 +42,35 @@ public class ComplexityPlotting extends AModule {
         File f_ccurve = new File(getOutputfolder() + "/" + output_stem + ".ccurve");
         File f_extrap = new File(getOutputfolder() + "/" + output_stem + ".lcextrap");
 
-        if(f_ccurve.exists() && !f_ccurve.isDirectory()) {
+        if ( runsInProcess() ) {
+            //Logged instead of an lcp command line, see runInProcess
+            this.parameters = new String[]{"IO.ComplexityPlot", f_ccurve.getAbsolutePath(), f_extrap.getAbsolutePath(), getPlotFile(output_stem)};
+        } else if(f_ccurve.exists() && !f_ccurve.isDirectory()) {
            this.parameters = new String[]{"lcp", f_ccurve.getAbsolutePath(), f_extrap.getAbsolutePath(), getOutputfolder()};
         } else {
            this.parameters = new String[]{"lcp", f_ccurve.getAbsolutePath(), getOutputfolder()};
         }
     }
 
+    @Override
+    public boolean runsInProcess() {
+        return RuntimeOptions.isNativeComplexityPlotEnabled();
+    }
+
+    /**
+     * Draws the curves within EAGER (see IO.ComplexityPlot) into one PNG, lcp's own plots are not written.
+     */
+    @Override
+    public void runInProcess() throws IOException {
+        String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
+        ComplexityPlot plot = new ComplexityPlot(output_stem, new File(getOutputfolder() + "/" + output_stem + ".ccurve"),
+                new File(getOutputfolder() + "/" + output_stem + ".lcextrap"));
+        plot.writePNG(new File(getPlotFile(output_stem)));
+    }
+
+    private String getPlotFile(String output_stem) {
+        return getOutputfolder() + "/" + output_stem + ".complexity.png";
+    }
 
 
     @Override
@@ -37,7 +37,7 @@ public class ContaminationEstimator extends AModule {
         if ( !this.communicator.isUsesystemtmpdir() ) {
           AModule.setEnvironmentForParameterReplace (env,
                                                      "TMPDIR",
-                                                     getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                                                     getTemporaryFolder());
         }
     }
 
@@ -44,7 +44,7 @@ public class ContaminationEstimatorMT extends AModule {
         if ( !this.communicator.isUsesystemtmpdir() ) {
           AModule.setEnvironmentForParameterReplace (env,
                                                      "TMPDIR",
-                                                     getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                                                     getTemporaryFolder());
         }
     }
 
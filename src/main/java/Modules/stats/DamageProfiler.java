@@ -1,9 +1,12 @@
 package Modules.stats;
 
 import IO.Communicator;
+import IO.DamagePatterns;
+import IO.RuntimeOptions;
 import Modules.AModule;
 import com.google.common.io.Files;
 
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -21,7 +24,7 @@ public class DamageProfiler extends AModule {
         if ( !this.communicator.isUsesystemtmpdir() ) {
             AModule.setEnvironmentForParameterReplace (env,
                     "TMPDIR",
-                    getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                    getTemporaryFolder());
         }
     }
 
@@ -37,6 +40,29 @@ public class DamageProfiler extends AModule {
         this.outputfile = this.inputfile;
     }
 
+    /**
+     * Advanced options are only understood by damageprofiler itself.
+     */
+    @Override
+    public boolean runsInProcess() {
+        String advanced = this.communicator.getDamageProfiler_advanced();
+        return RuntimeOptions.isNativeDamageEnabled() && (advanced == null || advanced.trim().isEmpty());
+    }
+
+    /**
+     * Reads all records like damageprofiler does, damage patterns are only downsampled for mapDamage. The tables go to
+     * the folder named after the input within the -o folder, where damageprofiler writes them, so they do not
+     * replace the ones of mapDamage in 7-DnaDamage/<stem>.
+     */
+    @Override
+    public void runInProcess() throws IOException {
+        String output_stem = Files.getNameWithoutExtension(this.getInputfile().get(0));
+        DamagePatterns damage = new DamagePatterns(this.communicator.getGUI_reference(),
+                Integer.parseInt(this.communicator.getDamageProfiler_length()), 1);
+        damage.count(this.getInputfile().get(0), Integer.parseInt(this.communicator.getCpucores()));
+        damage.write(getOutputfolder() + "/" + output_stem + "/" + output_stem);
+    }
+
     @Override
     public String getOutputfolder() {
         return this.communicator.getGUI_resultspath() + "/7-DnaDamage";
@@ -17,6 +17,7 @@
 package Modules.stats;
 
 import IO.Communicator;
+import IO.ScratchSpace;
 import Modules.AModule;
 
 /**
@@ -43,19 +44,25 @@ public class Flagstat extends AModule {
     @Override
     public void setParameters() {
         String toFireBash = "";
+        String statsfile = "";
         switch(currentConfiguration){
             case SAM :
             case DEFAULT :
-                toFireBash = "samtools flagstat "+this.inputfile.get(0)+" > "+this.inputfile.get(0)+".stats";
-                this.parameters =  new String[]{"/bin/sh", "-c", toFireBash};
-                this.outputfile = this.inputfile;
+                statsfile = ScratchSpace.toResultsPath(this.inputfile.get(0))+".stats";
                 break;
-            case FILTERED : toFireBash = "samtools flagstat "+this.inputfile.get(0)+" > "+this.inputfile.get(0)+".qF.stats";
-                this.parameters =  new String[]{"/bin/sh", "-c", toFireBash};
-                this.outputfile = this.inputfile;
+            case FILTERED :
+                statsfile = ScratchSpace.toResultsPath(this.inputfile.get(0))+".qF.stats";
                 break;
         }
-
+        this.outputfile = this.inputfile;
+
+        //SamtoolsView already counts these while writing the BAM file, no need to read it again then
+        if ( AModule.isUpToDate(statsfile, this.inputfile.get(0)) ) {
+            this.parameters = getSkipParameters(statsfile + " was written together with " + this.inputfile.get(0));
+        } else {
+            toFireBash = "samtools flagstat "+this.inputfile.get(0)+" > "+statsfile;
+            this.parameters =  new String[]{"/bin/sh", "-c", toFireBash};
+        }
     }
 
     @Override
@@ -65,6 +72,10 @@ public class Flagstat extends AModule {
 
 
 
+    public int getCurrentConfiguration() {
+        return currentConfiguration;
+    }
+
     @Override
     public String getModulename(){
         return super.getModulename() + getSubModuleName();
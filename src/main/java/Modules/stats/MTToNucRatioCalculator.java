@@ -16,8 +16,18 @@
 
 package Modules.stats;
 
+import IO.BAMShards;
 import IO.Communicator;
+import IO.IndexedCounts;
+import IO.RuntimeOptions;
 import Modules.AModule;
+import com.google.common.io.Files;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 
 /**
  * Created by alex on 01.11.14.
@@ -25,6 +35,8 @@ import Modules.AModule;
 
 
 public class MTToNucRatioCalculator extends AModule {
+    private static final long NUCLEAR_LENGTH_SAMPLE = 100000;
+
     public MTToNucRatioCalculator(Communicator c) {
         super(c);
     }
@@ -35,6 +47,85 @@ public class MTToNucRatioCalculator extends AModule {
         this.parameters = new String[]{"mttonucratiocalculator", this.inputfile.get(0), this.getOutputfolder(), this.communicator.getFilter_for_mt()};
     }
 
+    /**
+     * With -Deager.mtnucratio.native=true and an index the ratio is computed within EAGER. The mitochondrial reads
+     * are all read, the nuclear ones are counted from the index metadata and only a sample of NUCLEAR_LENGTH_SAMPLE
+     * of them, drawn from every nuclear reference in proportion to its records, is read. The coverage is the count
+     * of mapped primary reads times their mean read length over the reference length, on both sides. The index
+     * counts secondary and supplementary records too, so the nuclear count is scaled by the share of primary records
+     * in the sample. The result is written as key: value lines, not in the layout of mttonucratiocalculator.
+     */
+    @Override
+    public boolean runsInProcess() {
+        return RuntimeOptions.isNativeMTNucRatioEnabled() && IndexedCounts.isIndexed(this.inputfile.get(0));
+    }
+
+    @Override
+    public void runInProcess() throws IOException {
+        String bam = this.inputfile.get(0);
+        LinkedHashMap<String, Long> records = BAMShards.countAlignedRecords(bam);
+        LinkedHashMap<String, Long> lengths = IndexedCounts.getReferenceLengths(bam);
+        if ( records == null ) {
+            throw new IOException("Could not read the index of " + bam);
+        }
+
+        long mtLength = 0;
+        long[] mtSample = new long[3];
+        long nucRecords = 0;
+        long nucLength = 0;
+        for (String reference : lengths.keySet()) {
+            if ( reference.contains(this.communicator.getFilter_for_mt()) ) {
+                mtLength += lengths.get(reference);
+                addSample(mtSample, IndexedCounts.countReadsAndBases(bam, reference, -1));
+            } else {
+                nucRecords += records.get(reference);
+                nucLength += lengths.get(reference);
+            }
+        }
+
+        long[] nucSample = new long[3];
+        for (String reference : lengths.keySet()) {
+            if ( reference.contains(this.communicator.getFilter_for_mt()) || records.get(reference) == 0 ) {
+                continue;
+            }
+            long share = Math.round((double) NUCLEAR_LENGTH_SAMPLE * records.get(reference) / nucRecords);
+            if ( share > 0 ) {
+                addSample(nucSample, IndexedCounts.countReadsAndBases(bam, reference, share));
+            }
+        }
+
+        long mtReads = mtSample[0];
+        long nucReads = nucSample[2] == 0 ? nucRecords : Math.round((double) nucRecords * nucSample[0] / nucSample[2]);
+        double mtCoverage = getCoverage(mtReads, mtSample, mtLength);
+        double nucCoverage = getCoverage(nucReads, nucSample, nucLength);
+        double ratio = nucCoverage == 0 ? 0 : mtCoverage / nucCoverage;
+
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(getOutputfolder() + "/" + Files.getNameWithoutExtension(bam) + ".mtnucratio"));
+        bfw.write("mtreads: " + mtReads + "\n");
+        bfw.write("mt_cov_avg: " + String.format(Locale.ROOT, "%.6f", mtCoverage) + "\n");
+        bfw.write("nucreads: " + nucReads + "\n");
+        bfw.write("nuc_cov_avg: " + String.format(Locale.ROOT, "%.6f", nucCoverage) + "\n");
+        bfw.write("mt_nuc_ratio: " + String.format(Locale.ROOT, "%.6f", ratio) + "\n");
+        bfw.flush();
+        bfw.close();
+    }
+
+    private static void addSample(long[] sample, long[] readsAndBases) {
+        sample[0] += readsAndBases[0];
+        sample[1] += readsAndBases[1];
+        sample[2] += readsAndBases[2];
+    }
+
+    /**
+     * Mean coverage of reads with the mean read length of the sample (reads, bases) on length bases.
+     */
+    private static double getCoverage(long reads, long[] sample, long length) {
+        if ( length == 0 || sample[0] == 0 ) {
+            return 0;
+        }
+        return reads * ((double) sample[1] / sample[0]) / length;
+    }
+
     @Override
     public String getOutputfolder() {
         return this.communicator.getGUI_resultspath() + "/5-DeDup";
@@ -17,8 +17,14 @@
 package Modules.stats;
 
 import IO.Communicator;
+import IO.DamagePatterns;
+import IO.Downsampling;
+import IO.RuntimeOptions;
 import Modules.AModule;
 import com.google.common.io.Files;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -34,7 +40,7 @@ public class MapDamage extends AModule {
         if ( !this.communicator.isUsesystemtmpdir() ) {
           AModule.setEnvironmentForParameterReplace (env,
                                                      "TMPDIR",
-                                                     getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                                                     getTemporaryFolder());
         }
     }
 
@@ -46,9 +52,42 @@ public class MapDamage extends AModule {
                                         "-l", this.communicator.getMapdamage_length(),
                                         "-d", output_path+"/"+output_stem,"--merge-reference-sequences",
                                          this.communicator.getMapdamage_advanced()};
+
+        //Damage patterns converge long before all reads of a large library are seen, mapDamage draws the subsample itself
+        double fraction = Downsampling.getFraction(this.getInputfile().get(0));
+        if ( fraction < 1 ) {
+            ArrayList<String> downsampled = new ArrayList<String>(Arrays.asList(this.parameters));
+            downsampled.add(downsampled.size() - 1, "--downsample=" + Downsampling.getReadBudget());
+            //The fraction is recorded by the run itself, sh passes the mapDamage arguments on unchanged
+            downsampled.addAll(0, Arrays.asList("/bin/sh", "-c", "\"$0\" \"$@\" && " +
+                    Downsampling.getRecordCommand(output_path, getModulename(), this.getInputfile().get(0), fraction)));
+            this.parameters = downsampled.toArray(new String[0]);
+        }
         this.outputfile = this.inputfile;
     }
 
+    /**
+     * Advanced options (e.g. rescaling) are only understood by mapDamage itself.
+     */
+    @Override
+    public boolean runsInProcess() {
+        String advanced = this.communicator.getMapdamage_advanced();
+        return RuntimeOptions.isNativeDamageEnabled() && (advanced == null || advanced.trim().isEmpty());
+    }
+
+    @Override
+    public void runInProcess() throws IOException {
+        String output_stem = Files.getNameWithoutExtension(this.getInputfile().get(0));
+        double fraction = Downsampling.getFraction(this.getInputfile().get(0));
+        if ( fraction < 1 ) {
+            Downsampling.record(getOutputfolder(), getModulename(), this.getInputfile().get(0), fraction);
+        }
+        DamagePatterns damage = new DamagePatterns(this.communicator.getGUI_reference(),
+                Integer.parseInt(this.communicator.getMapdamage_length()), fraction);
+        damage.count(this.getInputfile().get(0), Integer.parseInt(this.communicator.getCpucores()));
+        damage.write(getOutputfolder() + "/" + output_stem);
+    }
+
     @Override
     public String getOutputfolder() {
         return this.communicator.getGUI_resultspath() + "/7-DnaDamage";
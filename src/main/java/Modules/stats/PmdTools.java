@@ -1,6 +1,8 @@
 package Modules.stats;
 
+import IO.BAMShards;
 import IO.Communicator;
+import IO.Downsampling;
 import Modules.AModule;
 import com.google.common.io.Files;
 
@@ -65,22 +67,64 @@ public class PmdTools extends AModule {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
         String output_path = getOutputfolder();
 
-        String command = "samtools view -h " + this.inputfile.get(0) +
-                " | pmdtools --threshold " + this.communicator.getPmdtoolsThreshold() + " " + getDataDependentOptions() + " --header | samtools view -Sb - > " +
-                output_path + File.separator + output_stem + ".pmds." + this.communicator.getPmdtoolsThreshold() + ".filter.bam" ;
-        String[] params = new String[]{"/bin/sh", "-c", command};
+        String outfile = output_path + File.separator + output_stem + ".pmds." + this.communicator.getPmdtoolsThreshold() + ".filter.bam";
+        String command = getPmdsFilterPipeline("", outfile);
+
+        //pmdtools is single threaded: filter shards of whole contigs in parallel and concatenate them in reference order
+        ArrayList<ArrayList<String>> shards = BAMShards.split(this.inputfile.get(0), Integer.parseInt(this.communicator.getCpucores()));
+        if ( shards != null && shards.size() > 1 ) {
+            String shardStem = getIntermediateFolder() + File.separator + output_stem + ".pmds." + this.communicator.getPmdtoolsThreshold() + ".shard";
+            String shardFiles = "";
+            String parallel = "pids=\"\"; ";
+            //unmapped reads without a position are in no contig region, samtools view returns them for the region *
+            ArrayList<String> unplaced = new ArrayList<String>();
+            unplaced.add("*");
+            shards.add(unplaced);
+            for (int i = 0; i < shards.size(); i++) {
+                String regions = "";
+                for (String contig : shards.get(i)) {
+                    regions += " '" + contig.replace("'", "'\\''") + "'";
+                }
+                parallel += getPmdsFilterPipeline(regions, shardStem + i + ".bam") + " & pids=\"$pids $!\"; ";
+                shardFiles += " " + shardStem + i + ".bam";
+            }
+            parallel += "failed=0; for pid in $pids; do wait $pid || failed=1; done; " +
+                    "[ $failed -eq 0 ] && samtools cat -o " + outfile + shardFiles + "; status=$?; rm -f" + shardFiles + "; exit $status";
+            //Very many contigs (draft assemblies) would exceed the maximum length of a command line
+            if ( parallel.length() < 100000 ) {
+                command = parallel;
+            }
+        }
 
-        return params;
+        return new String[]{"/bin/sh", "-c", command};
+    }
 
+    /**
+     * samtools view | pmdtools | samtools view for the given (quoted) regions of the input, all reads if regions is empty.
+     * The shards are concatenated without recompression, so they are written with the compression level of the result.
+     */
+    private String getPmdsFilterPipeline(String regions, String outfile) {
+        return "samtools view -h " + this.inputfile.get(0) + regions +
+                " | pmdtools --threshold " + this.communicator.getPmdtoolsThreshold() + " " + getDataDependentOptions() + " --header | samtools view -Sb -l " + getCompressionLevel() + " - > " +
+                outfile;
     }
 
 
     private String[] getParamsCalcRange(){
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
         String output_path = getOutputfolder();
-        String command = "samtools view " + this.inputfile.get(0) +
+        //The PMD distribution converges long before all reads of a large library are seen
+        String subsample = "";
+        double fraction = Downsampling.getFraction(this.inputfile.get(0));
+        if ( fraction < 1 ) {
+            subsample = "-s " + Downsampling.getSamtoolsSubsampleArgument(fraction) + " ";
+        }
+        String command = "samtools view " + subsample + this.inputfile.get(0) +
                 " | pmdtools --deamination --range " + this.communicator.getCpGRange() + " " + getDataDependentOptions() + " > " + output_path +
                 File.separator + output_stem + ".cpg.range" + this.communicator.getCpGRange() + ".txt";
+        if ( fraction < 1 ) {
+            command += " && " + Downsampling.getRecordCommand(output_path, getModulename(), this.inputfile.get(0), fraction);
+        }
         String[] params = new String[]{"/bin/sh", "-c", command};
 
         return params;
@@ -92,7 +136,7 @@ public class PmdTools extends AModule {
             AModule.setEnvironmentForParameterPrepend (env,
                     " ",
                     "JAVA_TOOL_OPTIONS",
-                    "-Djava.io.tmpdir=" + getOutputfolder() + System.getProperty ("file.separator") + ".tmp");
+                    "-Djava.io.tmpdir=" + getTemporaryFolder());
         }
     }
 
@@ -101,6 +145,10 @@ public class PmdTools extends AModule {
         return this.communicator.getGUI_resultspath() + "/5-DeDup";
     }
 
+    public int getRunTarget() {
+        return runTarget;
+    }
+
     private String getSubModuleName() {
         switch (runTarget){
             case PMDS_FILTER:
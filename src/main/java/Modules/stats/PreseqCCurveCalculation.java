@@ -44,6 +44,13 @@ public class PreseqCCurveCalculation extends AModule {
 
         switch(currentConfiguration) {
             case DEFAULT:
+                //PreseqHistogram counted the duplicates already
+                String histogram = PreseqHistogram.getHistogramFile(getOutputfolder(), this.inputfile.get(0));
+                if ( AModule.isUpToDate(histogram, this.inputfile.get(0)) ) {
+                    this.parameters = new String[]{"preseq", "c_curve", "-s", String.valueOf(this.communicator.getPreseq_ccurve_stepsize()), "-o",
+                            getOutputfolder() + "/" + output_stem + ".ccurve", "-H", histogram};
+                    break;
+                }
                 this.parameters = new String[]{"preseq", "c_curve", "-s", String.valueOf(this.communicator.getPreseq_ccurve_stepsize()), "-o",
                         getOutputfolder() + "/" + output_stem + ".ccurve", "-B", this.inputfile.get(0)};
                 break;
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Modules.stats;
+
+import IO.Communicator;
+import Modules.AModule;
+import com.google.common.io.Files;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts how often each read was seen in a sorted BAM file, the way preseq -B does it for single end data: consecutive
+ * reads with the same position, end and strand are copies of one molecule. The resulting histogram (copies, number of
+ * molecules) is read by both PreseqCCurveCalculation and PreseqLCExtrapCalculation, so the BAM file is read only once.
+ */
+public class PreseqHistogram extends AModule {
+
+    public PreseqHistogram(Communicator c) {
+        super(c);
+    }
+
+    @Override
+    public void setParameters() {
+        this.outputfile = this.inputfile;
+        //mapped primary alignments only, as uncompressed BAM for the histogram below
+        this.parameters = new String[]{"samtools", "view", "-@", this.communicator.getCpucores(), "-u", "-F", "0x904", this.inputfile.get(0)};
+    }
+
+    @Override
+    public boolean consumesProcessOutput() {
+        return true;
+    }
+
+    @Override
+    public void consumeProcessOutput(InputStream processOutput) throws IOException {
+        TreeMap<Long, Long> histogram = new TreeMap<Long, Long>();
+        SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT)
+                .open(SamInputResource.of(processOutput));
+        try {
+            SAMRecordIterator iterator = reader.iterator();
+            SAMRecord previous = null;
+            long copies = 0;
+            while ( iterator.hasNext() ) {
+                SAMRecord record = iterator.next();
+                if ( previous != null && isSameMolecule(previous, record) ) {
+                    copies++;
+                } else {
+                    add(histogram, copies);
+                    copies = 1;
+                }
+                previous = record;
+            }
+            add(histogram, copies);
+        } catch (RuntimeException e) {
+            processOutput.close();
+            throw new IOException("Could not read " + this.inputfile.get(0) + ": " + e.getMessage(), e);
+        } finally {
+            reader.close();
+        }
+
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(getHistogramFile(getOutputfolder(), this.inputfile.get(0))));
+        for (Map.Entry<Long, Long> entry : histogram.entrySet()) {
+            bfw.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+        }
+        bfw.flush();
+        bfw.close();
+    }
+
+    private static boolean isSameMolecule(SAMRecord a, SAMRecord b) {
+        return a.getReferenceIndex().equals(b.getReferenceIndex()) && a.getAlignmentStart() == b.getAlignmentStart()
+                && a.getAlignmentEnd() == b.getAlignmentEnd() && a.getReadNegativeStrandFlag() == b.getReadNegativeStrandFlag();
+    }
+
+    private static void add(TreeMap<Long, Long> histogram, long copies) {
+        if ( copies > 0 ) {
+            Long molecules = histogram.get(copies);
+            histogram.put(copies, molecules == null ? 1 : molecules + 1);
+        }
+    }
+
+    public static String getHistogramFile(String outputfolder, String bam) {
+        return outputfolder + "/" + Files.getNameWithoutExtension(bam) + ".hist";
+    }
+
+    @Override
+    public String getOutputfolder() {
+        return this.communicator.getGUI_resultspath() + "/8-Preseq";
+    }
+}
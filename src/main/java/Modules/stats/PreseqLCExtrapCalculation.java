@@ -71,8 +71,14 @@ public class PreseqLCExtrapCalculation extends AModule {
 
     private String[] getDefaultParameters() {
         String output_stem = Files.getNameWithoutExtension(this.inputfile.get(0));
+        //PreseqHistogram counted the duplicates already
+        String histogram = PreseqHistogram.getHistogramFile(getOutputfolder(), this.inputfile.get(0));
+        String[] input = new String[]{"-B", this.inputfile.get(0)};
+        if ( AModule.isUpToDate(histogram, this.inputfile.get(0)) ) {
+            input = new String[]{"-H", histogram};
+        }
         return new String[]{"preseq", "lc_extrap", "-s", String.valueOf(this.communicator.getPreseq_lcextrap_stepsize()), "-o",
-                getOutputfolder() + "/" + output_stem + ".lcextrap", "-B", this.inputfile.get(0),
+                getOutputfolder() + "/" + output_stem + ".lcextrap", input[0], input[1],
                 "-b", String.valueOf(this.communicator.getPreseq_lcextrap_bootstraps()),
                 "-e", this.communicator.getPreseq_lcextrap_extrapolationsize()
         };
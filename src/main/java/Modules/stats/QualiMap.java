@@ -17,9 +17,13 @@
 package Modules.stats;
 
 import IO.Communicator;
+import IO.CoverageStatistics;
+import IO.RuntimeOptions;
 import Modules.AModule;
 import com.google.common.io.Files;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.ArrayList;
 
@@ -84,6 +88,24 @@ public class QualiMap extends AModule {
         this.outputfile = this.inputfile;
     }
 
+    @Override
+    public boolean runsInProcess() {
+        return RuntimeOptions.isNativeCoverageEnabled();
+    }
+
+    /**
+     * Writes the genome_results.txt of qualimap bamqc to the same folder, in the capture mode for the regions of
+     * the BED file only.
+     */
+    @Override
+    public void runInProcess() throws IOException {
+        String output_folder = getOutputfolder() + "/" + Files.getNameWithoutExtension(this.inputfile.get(0));
+        new File(output_folder).mkdirs();
+        CoverageStatistics coverage = new CoverageStatistics(currentConf == CAPTURE ? this.communicator.getBedfile() : null);
+        coverage.count(this.inputfile.get(0));
+        coverage.write(output_folder);
+    }
+
     @Override
     public String getOutputfolder() {
         return this.communicator.getGUI_resultspath() + "/6-QualiMap";
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Runner;
+
+import IO.RuntimeOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.Permission;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+/**
+ * Runs a Java tool (picard, dedup, damageprofiler, ...) within the EAGER JVM instead of starting a new JVM for it.
+ * The jar of a tool is configured per command, e.g. -Deager.jar.picard=/opt/picard/picard.jar, its main class is taken
+ * from the jar manifest. Every run uses a new class loader that does not see EAGER's own libraries, and System.exit
+ * calls of the tool end the run with that exit code instead of ending EAGER.
+ *
+ * Most modules give their tool a temporary folder of its own (DeDup, DamageProfiler, GATK, ...). Only Picard takes it
+ * as an argument, so the other tools only run in-process with the system temporary folder (usesystemtmpdir) and as
+ * separate processes otherwise, see getArguments.
+ *
+ * Intercepting System.exit needs a SecurityManager, which Java 8 to 17 allow to set (17 warns that it will be
+ * removed). On Java 18 and later the tools always run as separate processes, whatever eager.jar.* says. Nothing runs
+ * in-process unless a jar is configured.
+ *
+ * The tools listed in -Deager.jar.warm (e.g. -Deager.jar.warm=picard) keep their class loader for all following runs
+ * of the pipeline instead, so that the classes JIT-compiled in one run are reused by the next one. The loaders are
+ * closed once the pipeline finished, see closeWarmLoaders. This is not a tool server: the runs of a warm tool are
+ * isolated exactly as far as cold in-process runs are, i.e. standard streams, System.exit and system properties per
+ * run and the temporary folder as a tool argument (see getArguments), but they share EAGER's working directory and
+ * environment, and static fields are not reset between runs. Only list tools tested not to keep state in them.
+ */
+class InProcessTool {
+    private static final String TMPDIR = "java.io.tmpdir";
+    private static final ThreadGroup TOOLS = new ThreadGroup("eager-tools");
+    private static final int LAST_JAVA_WITH_EXIT_TRAP = 17;
+    private static boolean exitTrapInstalled = false;
+    private static boolean exitTrapUnavailable = false;
+    private static Set<String> reportedCommands = new HashSet<String>();
+    private static Map<File, URLClassLoader> warmLoaders = new HashMap<File, URLClassLoader>();
+
+    private final String command;
+    private final File jar;
+    private final String mainClass;
+
+    private InProcessTool(String command, File jar, String mainClass) {
+        this.command = command;
+        this.jar = jar;
+        this.mainClass = mainClass;
+    }
+
+    /**
+     * The in-process tool for a command, or null if it has to run as a separate process.
+     */
+    public static InProcessTool forCommand(String command) {
+        String jarPath = RuntimeOptions.getToolJar(command);
+        if ( jarPath == null || !installExitTrap() ) {
+            return null;
+        }
+        File jar = new File(jarPath);
+        try (JarFile jarFile = new JarFile(jar)) {
+            String mainClass = jarFile.getManifest() == null ? null : jarFile.getManifest().getMainAttributes().getValue("Main-Class");
+            if ( mainClass == null ) {
+                System.out.println("# " + jarPath + " has no Main-Class, running " + command + " as a separate process.");
+                return null;
+            }
+            return new InProcessTool(command, jar, mainClass);
+        } catch (IOException e) {
+            System.out.println("# Could not open " + jarPath + ", running " + command + " as a separate process: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The arguments of an in-process run for the command line parameters of a module, or null if the tool has to run as
+     * a separate process. The JDK reads java.io.tmpdir only once, so a temporary folder of the module given as
+     * -Djava.io.tmpdir in JAVA_TOOL_OPTIONS is passed as TMP_DIR= to Picard, other tools get their own JVM for it.
+     */
+    public String[] getArguments(String[] parameters, Map<String, String> env) {
+        String[] arguments = Arrays.copyOfRange(parameters, 1, parameters.length);
+        String tmpdir = getSystemProperties(env.get("JAVA_TOOL_OPTIONS")).get(TMPDIR);
+        if ( tmpdir == null || tmpdir.equals(System.getProperty(TMPDIR)) ) {
+            return arguments;
+        }
+        if ( parameters[0].equals("picard") ) {
+            arguments = Arrays.copyOf(arguments, arguments.length + 1);
+            arguments[arguments.length - 1] = "TMP_DIR=" + tmpdir;
+            return arguments;
+        }
+        synchronized (reportedCommands) {
+            if ( reportedCommands.add(parameters[0]) ) {
+                System.out.println("# " + parameters[0] + " is given its own temporary folder, which only Picard takes as an argument. "
+                        + parameters[0] + " runs as a separate process unless the system temporary folder is used.");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the main method of the tool with the given arguments and returns its exit code. The -D options of
+     * JAVA_TOOL_OPTIONS in env, except java.io.tmpdir (see getArguments), are set as system properties for the duration of the run.
+     * Standard streams and system properties are shared by the whole JVM, so tools of concurrent modules run one
+     * after the other. As a JVM of its own would, the run only ends when all non-daemon threads the tool started
+     * have ended, or when one of its threads calls System.exit.
+     */
+    public int run(String[] args, Map<String, String> env, PrintStream out, PrintStream err) throws IOException, InterruptedException {
+        synchronized (InProcessTool.class) {
+            return runExclusively(args, env, out, err);
+        }
+    }
+
+    private int runExclusively(String[] args, Map<String, String> env, PrintStream out, PrintStream err) throws IOException, InterruptedException {
+        PrintStream systemOut = System.out;
+        PrintStream systemErr = System.err;
+        Map<String, String> previousProperties = setSystemProperties(env.get("JAVA_TOOL_OPTIONS"));
+
+        URLClassLoader loader = getClassLoader();
+        ToolThreads threads = new ToolThreads(jar.getName());
+        try {
+            System.setOut(out);
+            System.setErr(err);
+            Method main = loader.loadClass(mainClass).getMethod("main", String[].class);
+            //threads started by the tool join the group of its main thread, see ToolThreads
+            Thread mainThread = new Thread(threads, () -> {
+                try {
+                    main.invoke(null, (Object) args);
+                } catch (InvocationTargetException e) {
+                    threads.mainFailed(e.getCause());
+                } catch (ReflectiveOperationException e) {
+                    threads.mainFailed(e);
+                }
+            }, "main");
+            mainThread.setContextClassLoader(loader);
+            mainThread.start();
+            threads.await();
+
+            if ( threads.exitStatus != null ) {
+                return threads.exitStatus;
+            }
+            if ( threads.mainFailure != null ) {
+                threads.mainFailure.printStackTrace(err);
+                return 1;
+            }
+            return 0;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            e.printStackTrace(err);
+            return 1;
+        } finally {
+            //threads still running after System.exit would have been ended together with the JVM of the tool
+            threads.interrupt();
+            out.flush();
+            err.flush();
+            System.setOut(systemOut);
+            System.setErr(systemErr);
+            restoreSystemProperties(previousProperties);
+            if ( !RuntimeOptions.isToolJarKeptWarm(command) ) {
+                loader.close();
+            }
+        }
+    }
+
+    private URLClassLoader getClassLoader() throws IOException {
+        if ( !RuntimeOptions.isToolJarKeptWarm(command) ) {
+            return newClassLoader();
+        }
+        synchronized (warmLoaders) {
+            URLClassLoader loader = warmLoaders.get(jar);
+            if ( loader == null ) {
+                loader = newClassLoader();
+                warmLoaders.put(jar, loader);
+            }
+            return loader;
+        }
+    }
+
+    /**
+     * Closes the class loaders of the warm tools, the next run of a tool loads its classes again.
+     */
+    public static void closeWarmLoaders() {
+        synchronized (warmLoaders) {
+            for (URLClassLoader loader : warmLoaders.values()) {
+                try {
+                    loader.close();
+                } catch (IOException e) {
+                    System.out.println("# Could not close the classes of an in-process tool: " + e.getMessage());
+                }
+            }
+            warmLoaders.clear();
+        }
+    }
+
+    private URLClassLoader newClassLoader() throws IOException {
+        return new URLClassLoader(new URL[]{jar.toURI().toURL()}, ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    private static Map<String, String> getSystemProperties(String javaToolOptions) {
+        Map<String, String> properties = new HashMap<String, String>();
+        if ( javaToolOptions == null ) {
+            return properties;
+        }
+        for (String option : Arrays.asList(javaToolOptions.trim().split("\\s+"))) {
+            int separator = option.indexOf('=');
+            if ( option.startsWith("-D") && separator > 2 ) {
+                properties.put(option.substring(2, separator), option.substring(separator + 1));
+            }
+        }
+        return properties;
+    }
+
+    private static Map<String, String> setSystemProperties(String javaToolOptions) {
+        Map<String, String> previous = new HashMap<String, String>();
+        for (Map.Entry<String, String> property : getSystemProperties(javaToolOptions).entrySet()) {
+            if ( !property.getKey().equals(TMPDIR) ) {
+                previous.put(property.getKey(), System.setProperty(property.getKey(), property.getValue()));
+            }
+        }
+        return previous;
+    }
+
+    private static void restoreSystemProperties(Map<String, String> previous) {
+        for (Map.Entry<String, String> property : previous.entrySet()) {
+            if ( property.getValue() == null ) {
+                System.clearProperty(property.getKey());
+            } else {
+                System.setProperty(property.getKey(), property.getValue());
+            }
+        }
+    }
+
+    /**
+     * Turns System.exit of the threads of a tool into an ExitException, also for threads that outlive their run.
+     * Exits of EAGER's own threads and nothing else are restricted. Returns false, and says so once, in JVMs without
+     * SecurityManager support (see the class doc).
+     */
+    @SuppressWarnings("removal")
+    private static synchronized boolean installExitTrap() {
+        if ( !exitTrapInstalled && !exitTrapUnavailable ) {
+            if ( getJavaVersion() > LAST_JAVA_WITH_EXIT_TRAP ) {
+                System.out.println("# Java " + getJavaVersion() + " cannot intercept System.exit of tools (Java " + LAST_JAVA_WITH_EXIT_TRAP
+                        + " or older can), the eager.jar.* tools run as separate processes.");
+                exitTrapUnavailable = true;
+                return false;
+            }
+            try {
+                System.setSecurityManager(new SecurityManager() {
+                    @Override
+                    public void checkPermission(Permission perm) {
+                    }
+
+                    @Override
+                    public void checkPermission(Permission perm, Object context) {
+                    }
+
+                    @Override
+                    public void checkExit(int status) {
+                        ThreadGroup group = Thread.currentThread().getThreadGroup();
+                        if ( group instanceof ToolThreads ) {
+                            ((ToolThreads) group).exited(status);
+                            throw new ExitException(status);
+                        }
+                    }
+                });
+                exitTrapInstalled = true;
+            } catch (SecurityException | UnsupportedOperationException e) {
+                System.out.println("# System.exit of tools cannot be intercepted in this JVM (" + e.getMessage()
+                        + "), the eager.jar.* tools run as separate processes.");
+                exitTrapUnavailable = true;
+            }
+        }
+        return exitTrapInstalled;
+    }
+
+    /**
+     * The feature release of the running JVM, 8 for 1.8.
+     */
+    private static int getJavaVersion() {
+        String version = System.getProperty("java.specification.version");
+        try {
+            return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+        } catch (NumberFormatException e) {
+            return LAST_JAVA_WITH_EXIT_TRAP;
+        }
+    }
+
+    /**
+     * The threads of one run of a tool. New threads join the group of the thread starting them, so all threads the
+     * tool starts (also those of executors) are part of it.
+     */
+    private static class ToolThreads extends ThreadGroup {
+        private volatile Integer exitStatus = null;
+        private volatile Throwable mainFailure = null;
+
+        ToolThreads(String name) {
+            super(TOOLS, name);
+            //removed from TOOLS once its last thread ended
+            setDaemon(true);
+        }
+
+        synchronized void exited(int status) {
+            if ( exitStatus == null ) {
+                exitStatus = status;
+            }
+        }
+
+        void mainFailed(Throwable failure) {
+            if ( !(failure instanceof ExitException) ) {
+                mainFailure = failure;
+            }
+        }
+
+        /**
+         * Waits until no non-daemon thread of the tool is alive anymore, or the tool called System.exit.
+         */
+        void await() throws InterruptedException {
+            while ( exitStatus == null ) {
+                Thread[] threads = new Thread[activeCount() + 8];
+                int count = enumerate(threads, true);
+                Thread running = null;
+                for (int i = 0; i < count && running == null; i++) {
+                    if ( !threads[i].isDaemon() && threads[i].isAlive() ) {
+                        running = threads[i];
+                    }
+                }
+                if ( running == null ) {
+                    return;
+                }
+                running.join(100);
+            }
+        }
+
+        @Override
+        public void uncaughtException(Thread t, Throwable e) {
+            //the end of a thread calling System.exit, not a failure
+            if ( !(e instanceof ExitException) ) {
+                super.uncaughtException(t, e);
+            }
+        }
+    }
+
+    private static class ExitException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        ExitException(int status) {
+            super("System.exit(" + status + ")");
+            this.status = status;
+        }
+    }
+}
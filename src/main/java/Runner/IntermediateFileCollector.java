@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Runner;
+
+import IO.RuntimeOptions;
+import IO.ScratchSpace;
+import Modules.AModule;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Deletes intermediate files of a ModulePool as soon as they are not needed anymore, instead of waiting for
+ * CleanUpRedundantData at the very end of the pipeline.
+ *
+ * The modules of a pool form a chain: every module reads the current file(s) of the pool and either passes them on
+ * (statistics, indexing) or replaces them with its own output. Once a module replacing a file has succeeded, all
+ * consumers of that file have finished and it can be deleted - if the module that wrote it declared its output as
+ * intermediate (see AModule.producesIntermediateOutput). Everything else is retained.
+ * Background branches (see ModuleBranch) are still reading their input when the following module finishes, files
+ * read by a running branch are only deleted once the branch has been joined.
+ */
+class IntermediateFileCollector {
+    private HashSet<String> intermediates = new HashSet<String>();
+    private HashMap<String, Integer> readByBranches = new HashMap<String, Integer>();
+    private HashSet<String> deferred = new HashSet<String>();
+
+    public void moduleFinished(AModule module, ArrayList<String> consumed) {
+        ArrayList<String> produced = module.getOutputfile();
+        if ( consumed == null || produced == null || !isEnabled(module) ) {
+            return;
+        }
+
+        for (String file : consumed) {
+            if ( !produced.contains(file) && intermediates.remove(file) ) {
+                if ( readByBranches.containsKey(file) ) {
+                    deferred.add(file);
+                } else {
+                    deleteWithIndex(file);
+                }
+            }
+        }
+
+        if ( module.producesIntermediateOutput() ) {
+            for (String file : produced) {
+                if ( !consumed.contains(file) ) {
+                    intermediates.add(file);
+                }
+            }
+        }
+    }
+
+    public void branchStarted(ArrayList<String> input) {
+        if ( input != null ) {
+            for (String file : input) {
+                readByBranches.merge(file, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Deletes the intermediate files that were only kept for the branch, once no other running branch reads them.
+     */
+    public void branchFinished(ArrayList<String> input) {
+        if ( input == null ) {
+            return;
+        }
+        for (String file : input) {
+            Integer readers = readByBranches.get(file);
+            if ( readers == null ) {
+                continue;
+            }
+            if ( readers > 1 ) {
+                readByBranches.put(file, readers - 1);
+            } else {
+                readByBranches.remove(file);
+                if ( deferred.remove(file) ) {
+                    deleteWithIndex(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * With a scratch disk intermediate files are always removed early, as CleanUpRedundantData only cleans the results folder.
+     */
+    private boolean isEnabled(AModule module) {
+        return module.getCommunicator().isRun_cleanup() && (RuntimeOptions.isEagerCleanupEnabled() || ScratchSpace.isEnabled());
+    }
+
+    private void deleteWithIndex(String file) {
+        delete(file);
+        for (String index : AModule.getIndexFiles(file)) {
+            delete(index);
+        }
+    }
+
+    private void delete(String file) {
+        try {
+            if ( Files.deleteIfExists(Paths.get(file)) ) {
+                System.out.println("# Removed intermediate file that is not needed anymore: " + file);
+            }
+        } catch (IOException e) {
+            System.out.println("# Could not remove intermediate file " + file + ": " + e.getMessage());
+        }
+    }
+}
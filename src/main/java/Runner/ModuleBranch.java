@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Runner;
+
+import IO.Communicator;
+import Modules.AModule;
+import exceptions.ModuleFailedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Modules that only read the current file of a ModulePool and run in the background, while the pool continues with
+ * the following modules. The branch consists of stages that run one after the other, the modules within a stage
+ * run concurrently. The pool waits for its branches before it ends.
+ */
+public class ModuleBranch extends AModule {
+    private String name;
+    private ArrayList<ArrayList<AModule>> stages = new ArrayList<ArrayList<AModule>>();
+    private Future<Void> running;
+
+    public ModuleBranch(Communicator c, String name) {
+        super(c);
+        this.name = name;
+    }
+
+    /**
+     * Adds a stage that runs when all previous stages are done.
+     */
+    public ModuleBranch addStage(AModule... modules) {
+        stages.add(new ArrayList<AModule>(Arrays.asList(modules)));
+        return this;
+    }
+
+    @Override
+    public void setParameters() {
+        this.outputfile = this.inputfile;
+        this.parameters = new String[]{"echo", "# " + getModulename() + " started in the background"};
+    }
+
+    public void start(ExecutorService executor) {
+        final ArrayList<String> input = this.inputfile;
+        running = executor.submit(() -> {
+            for (ArrayList<AModule> stage : stages) {
+                ArrayList<Future<Void>> modules = new ArrayList<Future<Void>>();
+                ExecutorService stageExecutor = Executors.newFixedThreadPool(stage.size());
+                for (AModule module : stage) {
+                    modules.add(stageExecutor.submit(runModule(module, input)));
+                }
+                stageExecutor.shutdown();
+                try {
+                    for (Future<Void> module : modules) {
+                        await(module);
+                    }
+                } catch (InterruptedException e) {
+                    stageExecutor.shutdownNow();
+                    throw e;
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the branch to finish, rethrowing the failure of one of its modules.
+     */
+    public void join() throws InterruptedException, ModuleFailedException {
+        if ( running != null ) {
+            await(running);
+        }
+    }
+
+    /**
+     * Stops the branch without waiting for it, the modules running at the moment are interrupted.
+     */
+    public void cancel() {
+        if ( running != null ) {
+            running.cancel(true);
+        }
+    }
+
+    private Callable<Void> runModule(AModule module, ArrayList<String> input) {
+        return () -> {
+            module.setInputfile(input);
+            ModulePool.logParameters(module);
+            System.out.println("# Module that will be now executed in " + getModulename() + ": " + module.getModulename());
+            new ModuleRunner(module);
+            return null;
+        };
+    }
+
+    private static void await(Future<Void> future) throws InterruptedException, ModuleFailedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if ( e.getCause() instanceof ModuleFailedException ) {
+                throw (ModuleFailedException) e.getCause();
+            }
+            throw new ModuleFailedException(e.getCause().toString());
+        }
+    }
+
+    public ArrayList<ArrayList<AModule>> getStages() {
+        return stages;
+    }
+
+    @Override
+    public String getModulename() {
+        return super.getModulename() + name;
+    }
+
+    @Override
+    public String getOutputfolder() {
+        return this.getResultfolder();
+    }
+}
@@ -24,6 +24,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -37,6 +39,7 @@ public class ModulePool {
     private FileWriter fw;
     private BufferedWriter bfw;
     private String eager_version = "Unknown";
+    private IntermediateFileCollector intermediateFiles = new IntermediateFileCollector();
 
     public ModulePool() {
         modulePool = new ArrayList<AModule>();
@@ -62,24 +65,57 @@ public class ModulePool {
         bfw.flush();
         bfw.close();
 
-        for (AModule module : modulePool) {
-            if (this.getCurrentFilePath() != null) {
-
-            module.setInputfile(this.getCurrentFilePath());
-            module.getCommunicator().setGUI_inputfiles(this.getModulePoolPaths());
-            fw = new FileWriter(module.getResultfolder() + "/" + "EAGER.log", true); //append only, do not overwrite!
-            bfw = new BufferedWriter(fw);
-            System.out.println("# ModulePoolPaths: " + Arrays.toString(this.getModulePoolPaths().toArray()));
-            System.out.println("# Module that will be now executed: " + module.getModulename());
-            bfw.write(getParameterString(module));
-            bfw.flush();
-            bfw.close();
-
-            ModuleRunner modrunner = new ModuleRunner(module);
-            this.setCurrentFilePath(module.getOutputfile());
-            System.out.println("# Outputpath of ModulePool right now: " + this.getCurrentFilePath());
+        ExecutorService branchExecutor = Executors.newCachedThreadPool();
+        ArrayList<ModuleBranch> branches = new ArrayList<ModuleBranch>();
+        boolean completed = false;
+        try {
+            for (AModule module : modulePool) {
+                if (this.getCurrentFilePath() != null) {
+
+                module.setInputfile(this.getCurrentFilePath());
+                module.getCommunicator().setGUI_inputfiles(this.getModulePoolPaths());
+                System.out.println("# ModulePoolPaths: " + Arrays.toString(this.getModulePoolPaths().toArray()));
+                System.out.println("# Module that will be now executed: " + module.getModulename());
+                logParameters(module);
+
+                if ( module instanceof ModuleBranch ) {
+                    intermediateFiles.branchStarted(module.getInputfile());
+                    ((ModuleBranch) module).start(branchExecutor);
+                    branches.add((ModuleBranch) module);
+                    continue;
+                }
+
+                ArrayList<String> consumed = this.getCurrentFilePath();
+                ModuleRunner modrunner = new ModuleRunner(module);
+                this.setCurrentFilePath(module.getOutputfile());
+                intermediateFiles.moduleFinished(module, consumed);
+                OutputStager.moduleFinished(module, consumed);
+                System.out.println("# Outputpath of ModulePool right now: " + this.getCurrentFilePath());
+            }
+          }
+
+            //The following pools may depend on the results of the background branches
+            for (ModuleBranch branch : branches) {
+                branch.join();
+                intermediateFiles.branchFinished(branch.getInputfile());
+            }
+            completed = true;
+        } finally {
+            //A failed pool ends the run, its background branches must not keep their processes running
+            if ( !completed ) {
+                for (ModuleBranch branch : branches) {
+                    branch.cancel();
+                }
+            }
+            branchExecutor.shutdownNow();
         }
-      }
+    }
+
+    static synchronized void logParameters(AModule module) throws IOException {
+        BufferedWriter bfw = new BufferedWriter(new FileWriter(module.getResultfolder() + "/" + "EAGER.log", true)); //append only, do not overwrite!
+        bfw.write(getParameterString(module));
+        bfw.flush();
+        bfw.close();
     }
 
 
@@ -115,7 +151,7 @@ public class ModulePool {
         return output;
     }
 
-    private String getParameterString(AModule m){
+    private static String getParameterString(AModule m){
 
         String time = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
         String out = "################\n#" + m.getModulename() + " at " + time + " was executed with the following commandline:" + "\n";
@@ -16,10 +16,14 @@
 
 package Runner;
 
+import IO.ClassDataSharing;
 import Modules.AModule;
 import exceptions.ModuleFailedException;
+import org.apache.commons.io.output.WriterOutputStream;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.Map;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -59,20 +63,20 @@ public class ModuleRunner{
         FileWriter fw = new FileWriter(new File(outputpath+"/EAGER.log"), true);
         BufferedWriter bfw = new BufferedWriter(fw);
         long currtime_prior_execution = System.currentTimeMillis();
-        ProcessBuilder processBuilder = new ProcessBuilder(this.parameters);
-        Map<String, String> env = processBuilder.environment();
-        module.setProcessEnvironment (env);
-
-
-        Process process = processBuilder.start();
 
-        StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream(), System.out::println);
-        StreamGobbler errorGobbler = new StreamGobbler(process.getErrorStream(), (String l) -> { try { bfw.write(l);bfw.newLine(); } catch (IOException ioe) { System.out.println("Failed to read from Module error stream"+ioe.getMessage()); } });
-
-        new Thread(outputGobbler).start();
-        new Thread(errorGobbler).start();
-
-        returnCode = process.waitFor();
+        //Java tools with a configured jar run within this JVM, saving the startup of another JVM
+        InProcessTool tool = module.consumesProcessOutput() || module.runsInProcess() ? null : InProcessTool.forCommand(this.parameters[0]);
+        Map<String, String> env = new HashMap<String, String>(System.getenv());
+        module.setProcessEnvironment (env);
+        String[] toolArguments = tool == null ? null : tool.getArguments(this.parameters, env);
+        if ( module.runsInProcess() ) {
+            returnCode = runInProcess(module, bfw);
+        } else if ( toolArguments != null ) {
+            PrintStream toLog = new PrintStream(new WriterOutputStream(bfw, Charset.defaultCharset()), true);
+            returnCode = tool.run(toolArguments, env, System.out, toLog);
+        } else {
+            returnCode = runProcess(module, bfw);
+        }
 
         long currtime_post_execution = System.currentTimeMillis();
         long diff = currtime_post_execution - currtime_prior_execution;
@@ -96,7 +100,6 @@ public class ModuleRunner{
         } else { //Exit Value is not zero
             String time = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
             String failText = "# The Module " + module.getModulename() + " failed in execution at " + time + ". Check what happened in the logfile.";
-            process.destroy(); //We fail then
             System.out.println(failText);
             bfw.write(failText);
             bfw.flush();
@@ -104,6 +107,86 @@ public class ModuleRunner{
         }
     }
 
+    /**
+     * Runs a module that does its work within EAGER, failures are logged like those of a process.
+     */
+    private int runInProcess(AModule module, BufferedWriter bfw) throws IOException {
+        try {
+            module.runInProcess();
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            String failureText = "# Module " + module.getModulename() + " failed: " + e;
+            System.out.println(failureText);
+            bfw.write(failureText + "\n");
+            return 1;
+        }
+    }
+
+    /**
+     * Runs the module as a separate process, printing its standard output and logging its error output.
+     */
+    private int runProcess(AModule module, BufferedWriter bfw) throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(this.parameters);
+        Map<String, String> env = processBuilder.environment();
+        module.setProcessEnvironment (env);
+        String sharedClasses = ClassDataSharing.getJvmOptions(this.parameters[0]);
+        if ( sharedClasses == null ) {
+            return waitForProcess(processBuilder, module, bfw);
+        }
+        AModule.setEnvironmentForParameterPrepend (env, " ", "JAVA_TOOL_OPTIONS", sharedClasses);
+        int exitCode = -1;
+        try {
+            exitCode = waitForProcess(processBuilder, module, bfw);
+            return exitCode;
+        } finally {
+            ClassDataSharing.processEnded(this.parameters[0], sharedClasses, exitCode == 0);
+        }
+    }
+
+    private int waitForProcess(ProcessBuilder processBuilder, AModule module, BufferedWriter bfw) throws IOException, InterruptedException {
+        Process process = processBuilder.start();
+
+        StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream(), System.out::println);
+        StreamGobbler errorGobbler = new StreamGobbler(process.getErrorStream(), (String l) -> { try { bfw.write(l);bfw.newLine(); } catch (IOException ioe) { System.out.println("Failed to read from Module error stream"+ioe.getMessage()); } });
+
+        Thread outputThread;
+        final Exception[] consumerFailure = new Exception[1];
+        if ( module.consumesProcessOutput() ) {
+            //a consumer that gives up must not leave the process blocked on its output, or waitFor never returns
+            outputThread = new Thread(() -> {
+                try {
+                    module.consumeProcessOutput(process.getInputStream());
+                } catch (IOException | RuntimeException e) {
+                    consumerFailure[0] = e;
+                    process.destroy();
+                }
+            });
+        } else {
+            outputThread = new Thread(outputGobbler);
+        }
+        outputThread.start();
+        new Thread(errorGobbler).start();
+
+        int exitCode;
+        try {
+            exitCode = process.waitFor();
+        } catch (InterruptedException e) {
+            //e.g. a cancelled ModuleBranch, the process must not outlive its module
+            process.destroy();
+            throw e;
+        }
+        outputThread.join();
+        if ( consumerFailure[0] != null ) {
+            String consumerText = "# Processing the output of Module " + module.getModulename() + " failed: " + consumerFailure[0].getMessage();
+            System.out.println(consumerText);
+            bfw.write(consumerText + "\n");
+            if ( exitCode == 0 ) {
+                exitCode = 1;
+            }
+        }
+        return exitCode;
+    }
+
     public void runDependencyChecker(String outputpath, AModule module) throws InterruptedException, IOException {
         String[] createDoneParameters = new String[]{"touch",module.getOutputfolder()+"/"+"DONE."+module.getModulename()};
         ProcessBuilder processBuilder = new ProcessBuilder(createDoneParameters);
@@ -131,7 +214,7 @@ public class ModuleRunner{
     }
 
 
-    private boolean containsNonStoppingModule(String ModuleName){
+    static boolean containsNonStoppingModule(String ModuleName){
         for(NonStoppingModules mod : NonStoppingModules.values()){
             if(ModuleName.equals(mod.toString())){
                 return true;
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Runner;
+
+import IO.ScratchSpace;
+import Modules.AModule;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies outputs that were written to the scratch disk but are to be kept (no cleanup configured) to the results
+ * folder. The copies run in the background while the pipeline continues on the scratch files; one copy at a time,
+ * as the results folder is usually a network file system.
+ */
+class OutputStager {
+    private static ExecutorService executor;
+    private static ArrayList<Future<?>> copies = new ArrayList<Future<?>>();
+
+    public static synchronized void moduleFinished(AModule module, ArrayList<String> consumed) {
+        ArrayList<String> produced = module.getOutputfile();
+        if ( produced == null || !ScratchSpace.isEnabled() || module.getCommunicator().isRun_cleanup() ) {
+            return;
+        }
+        for (String file : produced) {
+            if ( ScratchSpace.isOnScratch(file) && (consumed == null || !consumed.contains(file)) ) {
+                if ( executor == null ) {
+                    executor = Executors.newSingleThreadExecutor();
+                }
+                copies.add(executor.submit(() -> stage(file)));
+            }
+        }
+    }
+
+    /**
+     * Waits for all copies to finish, reporting the ones that failed.
+     */
+    public static synchronized void awaitCompletion() throws InterruptedException {
+        if ( executor == null ) {
+            return;
+        }
+        for (Future<?> copy : copies) {
+            try {
+                copy.get();
+            } catch (ExecutionException e) {
+                System.out.println("# Copying a file from scratch to the results folder failed: " + e.getCause().getMessage());
+            }
+        }
+        executor.shutdown();
+        executor = null;
+        copies.clear();
+    }
+
+    private static Void stage(String file) throws IOException {
+        Path target = Paths.get(ScratchSpace.toResultsPath(file));
+        Path partial = Paths.get(target + ".partial");
+        Files.createDirectories(target.getParent());
+        Files.copy(Paths.get(file), partial, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("# Copied " + file + " to " + target);
+        return null;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package Runner;
+
+import Modules.AModule;
+import Modules.filehandling.BAMListCreator;
+import Modules.filehandling.CleanSam;
+import Modules.filehandling.SamtoolsFillmd;
+import Modules.filehandling.SamtoolsSort;
+import Modules.filehandling.SamtoolsView;
+import Modules.genotyping.AddOrReplaceReadGroups;
+import Modules.indexing.SamtoolsIndex;
+import Modules.stats.*;
+
+import java.util.ArrayList;
+
+/**
+ * Rule based rewriting of the module list of a ModulePool before it is executed. The pipeline builders in RunEAGER
+ * combine generic building blocks, which leaves passes over the data that do not change anything. These are removed
+ * or fused here, and the before/after plan is printed so that the rewrite is visible in the console output.
+ */
+public class PlanOptimizer {
+    private ArrayList<String> appliedRules = new ArrayList<String>();
+
+    public void optimize(ModulePool pool) {
+        ArrayList<AModule> plan = pool.getModules();
+        ArrayList<AModule> before = new ArrayList<AModule>(plan);
+        appliedRules.clear();
+
+        fuseMappedOnlyViews(plan);
+        linkRedundantViews(plan);
+        linkPresortedSorts(plan);
+        removeDuplicatePassThroughModules(plan);
+        runRequiredStatsFirst(plan);
+
+        if ( !appliedRules.isEmpty() ) {
+            printPlanDiff(before, plan);
+        }
+    }
+
+    /**
+     * SamtoolsView DEFAULT, its Flagstat and SamtoolsView ONLYMAPPED read the same reads twice: count all reads and
+     * write only the mapped ones in one pass instead.
+     */
+    private void fuseMappedOnlyViews(ArrayList<AModule> plan) {
+        for (int i = 0; i + 2 < plan.size(); i++) {
+            if ( isView(plan.get(i), SamtoolsView.DEFAULT) && isFlagstat(plan.get(i + 1), Flagstat.DEFAULT)
+                    && isView(plan.get(i + 2), SamtoolsView.ONLYMAPPED) ) {
+                AModule fused = new SamtoolsView(plan.get(i).getCommunicator(), SamtoolsView.DEFAULTONLYMAPPED);
+                plan.subList(i, i + 3).clear();
+                plan.add(i, fused);
+                appliedRules.add("fused SamtoolsView DEFAULT, Flagstat and SamtoolsView ONLYMAPPED");
+            }
+        }
+    }
+
+    /**
+     * A SamtoolsView DEFAULT does not filter anything, on the output of another unfiltered SamtoolsView it only copies
+     * the file. It is kept in the plan, as removing it would change the names of all following output files, but links
+     * its input instead of writing it again.
+     */
+    private void linkRedundantViews(ArrayList<AModule> plan) {
+        for (int i = 1; i < plan.size(); i++) {
+            AModule producer = producerOf(plan, i);
+            if ( isView(plan.get(i), SamtoolsView.DEFAULT)
+                    && (isView(producer, SamtoolsView.DEFAULT) || isView(producer, SamtoolsView.ONLYMAPPED)) ) {
+                ((SamtoolsView) plan.get(i)).setInputUnchanged(true);
+                appliedRules.add("replaced SamtoolsView DEFAULT on the output of another SamtoolsView by a link");
+            }
+        }
+    }
+
+    /**
+     * Sorting the output of an order preserving chain that starts with a sort does not change anything. The sorted file
+     * is a link to its input if both are written with the same compression level, otherwise the input is recompressed,
+     * e.g. so that a retained sorted file is not a link to a quickly compressed intermediate one.
+     */
+    private void linkPresortedSorts(ArrayList<AModule> plan) {
+        for (int i = 0; i < plan.size(); i++) {
+            if ( plan.get(i) instanceof SamtoolsSort && startsFromSortedFile(plan, i) ) {
+                String inputLevel = producerOf(plan, i).getCompressionLevel();
+                ((SamtoolsSort) plan.get(i)).setInputSorted(true, inputLevel);
+                appliedRules.add("replaced " + plan.get(i).getModulename() + " of an already sorted file by a " +
+                        (inputLevel.equals(plan.get(i).getCompressionLevel()) ? "link" : "recompression"));
+            }
+        }
+    }
+
+    /**
+     * The same module reading the same file twice only repeats its own work.
+     */
+    private void removeDuplicatePassThroughModules(ArrayList<AModule> plan) {
+        for (int i = plan.size() - 1; i > 0; i--) {
+            if ( !isPassThrough(plan.get(i)) ) {
+                continue;
+            }
+            for (int j = i - 1; j >= 0 && isPassThrough(plan.get(j)); j--) {
+                if ( plan.get(j).getModulename().equals(plan.get(i).getModulename()) ) {
+                    appliedRules.add("removed repeated " + plan.get(i).getModulename());
+                    plan.remove(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Consecutive modules that all leave the current file untouched do not depend on each other's position.
+     * Required ones are moved in front of the optional (non stopping) ones, so that a failing required module
+     * stops the pipeline before hours are spent on e.g. contamination estimation. The relative order within both
+     * groups is kept, as e.g. ContaminationEstimatorMT uses the output of ContaminationEstimator.
+     */
+    private void runRequiredStatsFirst(ArrayList<AModule> plan) {
+        int start = 0;
+        while ( start < plan.size() ) {
+            int end = start;
+            while ( end < plan.size() && isPassThrough(plan.get(end)) ) {
+                end++;
+            }
+            if ( end - start > 1 ) {
+                ArrayList<AModule> required = new ArrayList<AModule>();
+                ArrayList<AModule> optional = new ArrayList<AModule>();
+                boolean seenOptional = false;
+                boolean reordered = false;
+                for (AModule module : plan.subList(start, end)) {
+                    if ( isOptional(module) ) {
+                        optional.add(module);
+                        seenOptional = true;
+                    } else {
+                        required.add(module);
+                        reordered |= seenOptional;
+                    }
+                }
+                if ( reordered ) {
+                    required.addAll(optional);
+                    for (int i = 0; i < required.size(); i++) {
+                        plan.set(start + i, required.get(i));
+                    }
+                    appliedRules.add("moved optional statistics behind required ones");
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * The closest module before position i that changes the current file, or null.
+     */
+    private AModule producerOf(ArrayList<AModule> plan, int i) {
+        for (int j = i - 1; j >= 0; j--) {
+            if ( !isPassThrough(plan.get(j)) ) {
+                return plan.get(j);
+            }
+        }
+        return null;
+    }
+
+    private boolean startsFromSortedFile(ArrayList<AModule> plan, int i) {
+        for (AModule producer = producerOf(plan, i); producer != null; producer = producerOf(plan, plan.indexOf(producer))) {
+            if ( producer instanceof SamtoolsSort ) {
+                return true;
+            }
+            if ( !isOrderPreserving(producer) ) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Modules that only read the current file, i.e. their output file is their input file.
+     */
+    private boolean isPassThrough(AModule m) {
+        return m instanceof Flagstat || m instanceof SamtoolsIndex || m instanceof QualiMap || m instanceof MTToNucRatioCalculator
+                || m instanceof MapDamage || m instanceof DamageProfiler || m instanceof CaptureOnTarget
+                || m instanceof PreseqCCurveCalculation || m instanceof PreseqLCExtrapCalculation || m instanceof ComplexityPlotting
+                || m instanceof ContaminationEstimator || m instanceof ContaminationEstimatorMT || m instanceof SNPCC
+                || m instanceof ReportGenerator || m instanceof BAMListCreator || m instanceof ModuleBranch
+                || (m instanceof PmdTools && ((PmdTools) m).getRunTarget() == PmdTools.CALC_RANGE)
+                || isView(m, SamtoolsView.EXTRACTMAPPED) || isView(m, SamtoolsView.EXTRACTUNMAPPED);
+    }
+
+    /**
+     * Modules writing a new file with the records in the same order as their input.
+     */
+    private boolean isOrderPreserving(AModule m) {
+        return m instanceof SamtoolsView || m instanceof CleanSam || m instanceof AddOrReplaceReadGroups
+                || m instanceof SamtoolsFillmd || m instanceof PmdTools;
+    }
+
+    private boolean isOptional(AModule m) {
+        return ModuleRunner.containsNonStoppingModule(m.getClass().getSimpleName());
+    }
+
+    private boolean isView(AModule m, int configuration) {
+        return m instanceof SamtoolsView && ((SamtoolsView) m).getCurrentConfiguration() == configuration;
+    }
+
+    private boolean isFlagstat(AModule m, int configuration) {
+        return m instanceof Flagstat && ((Flagstat) m).getCurrentConfiguration() == configuration;
+    }
+
+    private void printPlanDiff(ArrayList<AModule> before, ArrayList<AModule> after) {
+        System.out.println("# Plan optimizer applied " + appliedRules.size() + " rewrite(s):");
+        for (String rule : appliedRules) {
+            System.out.println("#   " + rule);
+        }
+
+        //longest common subsequence of the two plans, everything else was removed (-) or added/moved (+)
+        int[][] lcs = new int[before.size() + 1][after.size() + 1];
+        for (int i = before.size() - 1; i >= 0; i--) {
+            for (int j = after.size() - 1; j >= 0; j--) {
+                lcs[i][j] = before.get(i) == after.get(j) ? lcs[i + 1][j + 1] + 1 : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+        int i = 0;
+        int j = 0;
+        while ( i < before.size() || j < after.size() ) {
+            if ( i < before.size() && j < after.size() && before.get(i) == after.get(j) ) {
+                System.out.println("#   " + before.get(i).getModulename());
+                i++;
+                j++;
+            } else if ( j < after.size() && (i == before.size() || lcs[i][j + 1] >= lcs[i + 1][j]) ) {
+                System.out.println("# + " + after.get(j).getModulename());
+                j++;
+            } else {
+                System.out.println("# - " + before.get(i).getModulename());
+                i++;
+            }
+        }
+    }
+}
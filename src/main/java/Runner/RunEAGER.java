@@ -18,6 +18,7 @@ package Runner;
 
 import IO.Communicator;
 import IO.FileSearcher;
+import IO.RuntimeOptions;
 import Modules.filehandling.*;
 import Modules.genotyping.*;
 import Modules.indexing.*;
@@ -96,17 +97,29 @@ public class RunEAGER {
 
 
     private void executeAll() throws IOException, InterruptedException {
+        if (RuntimeOptions.isPlanOptimizerEnabled()) {
+            PlanOptimizer optimizer = new PlanOptimizer();
+            for (ModulePool pool : pools) {
+                optimizer.optimize(pool);
+            }
+        }
         //Set Input Path for first pool correctly and automatically
         pools.get(0).setCurrentFilePath(communicator.getGUI_inputfiles());
         //Now start all the pools
-        for (ModulePool pool : pools) {
-            try {
-                pool.start();
-            } catch (ModuleFailedException e) {
-                e.printStackTrace();
-                break;
+        try {
+            for (ModulePool pool : pools) {
+                try {
+                    pool.start();
+                } catch (ModuleFailedException e) {
+                    e.printStackTrace();
+                    break;
+                }
             }
+        } finally {
+            InProcessTool.closeWarmLoaders();
         }
+        //Outputs written to a scratch disk may still be on their way to the results folder
+        OutputStager.awaitCompletion();
     }
 
 
@@ -258,6 +271,10 @@ public class RunEAGER {
             gatkpool.addModule(new ReportGenerator(communicator));
         }
 
+        if (RuntimeOptions.isCramOutputEnabled()) {
+            gatkpool.addModule(new CramConversion(communicator));
+        }
+
         pools.add(preprocesspool);
         if ( bacterialpool.getModules().size() > 0 ) {
             bacterialpool.addPredecessor(preprocesspool);
@@ -419,6 +436,10 @@ public class RunEAGER {
             gatkpool.addModule(new ReportGenerator(communicator));
         }
 
+        if (RuntimeOptions.isCramOutputEnabled()) {
+            gatkpool.addModule(new CramConversion(communicator));
+        }
+
         pools.add(preprocesspool);
         if ( ancientbacterialpool.getModules().size() > 0 ) {
             ancientbacterialpool.addPredecessor(preprocesspool);
@@ -579,6 +600,10 @@ public class RunEAGER {
             reportpool.addModule(new ReportGenerator(communicator));
         }
 
+        if (RuntimeOptions.isCramOutputEnabled()) {
+            reportpool.addModule(new CramConversion(communicator));
+        }
+
         pools.add(preprocesspool);
         if ( humanmodernpool.getModules().size() > 0 ) {
             humanmodernpool.addPredecessor(preprocesspool);
@@ -760,6 +785,10 @@ public class RunEAGER {
             reportpool.addModule(new ReportGenerator(communicator));
         }
 
+        if (RuntimeOptions.isCramOutputEnabled()) {
+            reportpool.addModule(new CramConversion(communicator));
+        }
+
         pools.add(preprocesspool);
         if ( humanancientpool.getModules().size() > 0 ) {
             humanancientpool.addPredecessor(preprocesspool);
@@ -966,13 +995,14 @@ public class RunEAGER {
     private void addContaminationEstimation(ModulePool pooltoadd){
         pooltoadd.addModule(new SamtoolsFillmd(communicator));
         pooltoadd.addModule(new SamtoolsIndex(communicator,SamtoolsIndex.SCHMUTZI));
+        //schmutzi runs for hours mostly single threaded, the coverage and damage modules run meanwhile
+        ModuleBranch contamination = new ModuleBranch(communicator, "ContaminationEstimation");
+        contamination.addStage(new ContaminationEstimator(communicator));
         if(communicator.isRun_mt_capture_mode()){
-            pooltoadd.addModule(new ContaminationEstimator(communicator));
-            pooltoadd.addModule(new ContaminationEstimatorMT(communicator, ContaminationEstimatorMT.DEFAULT));
-            pooltoadd.addModule(new ContaminationEstimatorMT(communicator, ContaminationEstimatorMT.NOTPREDC));
-        } else {
-            pooltoadd.addModule(new ContaminationEstimator(communicator));
+            contamination.addStage(new ContaminationEstimatorMT(communicator, ContaminationEstimatorMT.DEFAULT),
+                    new ContaminationEstimatorMT(communicator, ContaminationEstimatorMT.NOTPREDC));
         }
+        pooltoadd.addModule(contamination);
     }
 
 
@@ -1083,15 +1113,20 @@ public class RunEAGER {
 
 
     private void addComplexityEstimation(ModulePool pooltoadd){
+        //Both preseq runs read the same histogram, they run concurrently and in the background of the pool
+        ModuleBranch complexity = new ModuleBranch(communicator, "ComplexityEstimation");
         if (communicator.isRmdup_run() && !communicator.isMarkdup_run() && communicator.isRun_complexityestimation()) {
-            pooltoadd.addModule(new PreseqCCurveCalculation(communicator, PreseqCCurveCalculation.RUN_ON_HISTOGRAM));
-            pooltoadd.addModule(new PreseqLCExtrapCalculation(communicator, PreseqLCExtrapCalculation.RUN_ON_HIST));
-            pooltoadd.addModule(new ComplexityPlotting(communicator));
+            complexity.addStage(new PreseqCCurveCalculation(communicator, PreseqCCurveCalculation.RUN_ON_HISTOGRAM),
+                    new PreseqLCExtrapCalculation(communicator, PreseqLCExtrapCalculation.RUN_ON_HIST));
+            complexity.addStage(new ComplexityPlotting(communicator));
+            pooltoadd.addModule(complexity);
 
         } else if(communicator.isMarkdup_run() && communicator.isRun_complexityestimation()){
-            pooltoadd.addModule(new PreseqCCurveCalculation(communicator, PreseqCCurveCalculation.DEFAULT));
-            pooltoadd.addModule(new PreseqLCExtrapCalculation(communicator, PreseqLCExtrapCalculation.DEFAULT));
-            pooltoadd.addModule(new ComplexityPlotting(communicator));
+            complexity.addStage(new PreseqHistogram(communicator));
+            complexity.addStage(new PreseqCCurveCalculation(communicator, PreseqCCurveCalculation.DEFAULT),
+                    new PreseqLCExtrapCalculation(communicator, PreseqLCExtrapCalculation.DEFAULT));
+            complexity.addStage(new ComplexityPlotting(communicator));
+            pooltoadd.addModule(complexity);
         }
     }
 
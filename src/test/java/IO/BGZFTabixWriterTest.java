@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016. EAGER-CLI Alexander Peltzer
+ * This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package IO;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads the files written by BGZFTabixWriter back with htsjdk.
+ */
+public class BGZFTabixWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compressedContentIsReadBackUnchanged() throws IOException {
+        byte[] vcf = createVCF(20000);
+        File output = write(vcf, 6, 4, false);
+
+        assertArrayEquals(vcf, decompress(output));
+        assertEquals(BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK, BlockCompressedInputStream.checkTermination(output));
+        assertFalse(new File(output.getPath() + ".tbi").exists());
+    }
+
+    @Test
+    public void emptyInputIsAValidFile() throws IOException {
+        File output = write(new byte[0], 1, 2, false);
+
+        assertEquals(0, decompress(output).length);
+        assertEquals(BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK, BlockCompressedInputStream.checkTermination(output));
+    }
+
+    @Test
+    public void indexFindsTheRecordsOfARegion() throws IOException {
+        //enough records for many BGZF blocks, so that regions start within and across blocks
+        File output = write(createVCF(20000), 1, 4, true);
+        assertTrue(new File(output.getPath() + ".tbi").isFile());
+
+        try (VCFFileReader reader = new VCFFileReader(output, true)) {
+            assertEquals(positions(1000, 1100), queryPositions(reader, "chr1", 1000, 1100));
+            assertEquals(positions(19950, 20000), queryPositions(reader, "chr2", 19950, 20100));
+            assertEquals(positions(1, 1), queryPositions(reader, "chr2", 1, 1));
+            assertEquals(new ArrayList<Integer>(), queryPositions(reader, "chr3", 1, 100));
+        }
+    }
+
+    /**
+     * A VCF file with records at positions 1..n on chr1 and chr2.
+     */
+    private static byte[] createVCF(int n) {
+        StringBuilder vcf = new StringBuilder();
+        vcf.append("##fileformat=VCFv4.2\n");
+        vcf.append("##contig=<ID=chr1,length=").append(n).append(">\n");
+        vcf.append("##contig=<ID=chr2,length=").append(n).append(">\n");
+        vcf.append("##contig=<ID=chr3,length=").append(n).append(">\n");
+        vcf.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n");
+        for (String contig : new String[]{"chr1", "chr2"}) {
+            for (int position = 1; position <= n; position++) {
+                vcf.append(contig).append('\t').append(position).append("\t.\tA\t").append(position % 7 == 0 ? "G" : ".")
+                        .append("\t50\tPASS\tDP=").append(position % 40).append('\n');
+            }
+        }
+        return vcf.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private File write(byte[] content, int level, int threads, boolean index) throws IOException {
+        File output = new File(folder.getRoot(), "calls.vcf.gz");
+        try (BGZFTabixWriter writer = new BGZFTabixWriter(output, level, threads, index)) {
+            //uneven chunks, so that lines are split between write calls
+            for (int offset = 0; offset < content.length; offset += 777) {
+                writer.write(content, offset, Math.min(777, content.length - offset));
+            }
+        }
+        return output;
+    }
+
+    private static byte[] decompress(File file) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream in = new BlockCompressedInputStream(new FileInputStream(file))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( (read = in.read(buffer)) != -1 ) {
+                content.write(buffer, 0, read);
+            }
+        }
+        return content.toByteArray();
+    }
+
+    private static ArrayList<Integer> queryPositions(VCFFileReader reader, String contig, int start, int end) {
+        ArrayList<Integer> positions = new ArrayList<Integer>();
+        try (CloseableIterator<VariantContext> iterator = reader.query(contig, start, end)) {
+            while ( iterator.hasNext() ) {
+                VariantContext record = iterator.next();
+                assertEquals(contig, record.getContig());
+                positions.add(record.getStart());
+            }
+        }
+        return positions;
+    }
+
+    private static ArrayList<Integer> positions(int from, int to) {
+        ArrayList<Integer> positions = new ArrayList<Integer>();
+        for (int position = from; position <= to; position++) {
+            positions.add(position);
+        }
+        return positions;
+    }
+}